@@ -0,0 +1,194 @@
+package antifraud.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop HTTP load against a running instance: each client posts a transaction, waits for the
+ * answer and posts the next one. Prints throughput, latency percentiles and the mean response size,
+ * so two configurations (say the default and the {@code prod} profile) can be compared run by run.
+ * <p>
+ * {@code ./gradlew loadTest -PloadTestArgs="--url=http://localhost:28852 --clients=32 --duration=30 --setup"}
+ * <p>
+ * {@code --setup} registers an administrator and an unlocked merchant on an empty database; without it
+ * {@code --merchant=user:password} must name an existing unlocked merchant.
+ */
+public final class LoadTest {
+
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final String url;
+    private final String merchant;
+    private final String[] cards;
+    private final AtomicLong clock = new AtomicLong();
+
+    private LoadTest(String url, String merchant, int cards) {
+        this.url = url;
+        this.merchant = "Basic " + Base64.getEncoder().encodeToString(merchant.getBytes(StandardCharsets.UTF_8));
+        this.cards = new String[cards];
+        for (int i = 0; i < cards; i++) {
+            this.cards[i] = withCheckDigit(String.format("400000%09d", i));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        String url = options.getOrDefault("url", "http://localhost:28852");
+        int clients = Integer.parseInt(options.getOrDefault("clients", "32"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int cards = Integer.parseInt(options.getOrDefault("cards", "1000"));
+        String merchant = options.getOrDefault("merchant", "loadtest-merchant:loadtest");
+
+        LoadTest test = new LoadTest(url, merchant, cards);
+        if (options.containsKey("setup")) {
+            test.setUp(merchant);
+        }
+        test.run(clients, warmup, "warmup");
+        test.run(clients, duration, "measure").print(duration);
+    }
+
+    static void setUp(String url, String merchant) throws Exception {
+        new LoadTest(url, merchant, 0).setUp(merchant);
+    }
+
+    private void setUp(String merchant) throws Exception {
+        String[] credentials = merchant.split(":", 2);
+        String admin = "Basic " + Base64.getEncoder().encodeToString("loadtest-admin:loadtest".getBytes(StandardCharsets.UTF_8));
+        // The first user registered becomes the administrator; both calls answer 409 when already done
+        send("POST", "/api/auth/user", null, "{\"name\":\"Load\",\"username\":\"loadtest-admin\",\"password\":\"loadtest\"}");
+        send("POST", "/api/auth/user", null, "{\"name\":\"Load\",\"username\":\"" + credentials[0] + "\",\"password\":\"" + credentials[1] + "\"}");
+        HttpResponse<String> unlock = send("PUT", "/api/auth/access", admin,
+                "{\"username\":\"" + credentials[0] + "\",\"operation\":\"UNLOCK\"}");
+        if (unlock.statusCode() != 200) {
+            throw new IllegalStateException("Could not unlock " + credentials[0] + ": " + unlock.statusCode() + " " + unlock.body());
+        }
+    }
+
+    private Result run(int clients, int seconds, String phase) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        List<Result> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Result result = new Result();
+            results.add(result);
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    post(result);
+                }
+            }, phase + "-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return results.stream().reduce(new Result(), Result::merge);
+    }
+
+    private void post(Result result) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Dates move forward a minute per transaction, so cards collect a realistic history
+        LocalDateTime date = LocalDateTime.of(2024, 1, 1, 0, 0).plusMinutes(clock.getAndIncrement());
+        String body = "{\"amount\":" + (1 + random.nextInt(2000))
+                + ",\"ip\":\"10.0." + random.nextInt(4) + "." + (1 + random.nextInt(250))
+                + "\",\"number\":\"" + cards[random.nextInt(cards.length)]
+                + "\",\"region\":\"" + REGIONS[random.nextInt(REGIONS.length)]
+                + "\",\"date\":\"" + date + "\"}";
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = send("POST", "/api/antifraud/transaction", merchant, body);
+            result.record(System.nanoTime() - start, response.statusCode() == 200, response.body().length());
+        } catch (Exception e) {
+            result.record(System.nanoTime() - start, false, 0);
+        }
+    }
+
+    private HttpResponse<String> send(String method, String path, String authorization, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(body));
+        if (authorization != null) {
+            request.header("Authorization", authorization);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String withCheckDigit(String digits) {
+        int sum = 0;
+        boolean second = true;
+        for (int i = digits.length() - 1; i >= 0; i--) {
+            int digit = digits.charAt(i) - '0';
+            if (second) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            second = !second;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    private static final class Result {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+        private long bytes;
+
+        void record(long nanos, boolean ok, int length) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            bytes += length;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        Result merge(Result other) {
+            Result merged = new Result();
+            merged.latencies = Arrays.copyOf(latencies, count + other.count);
+            System.arraycopy(other.latencies, 0, merged.latencies, count, other.count);
+            merged.count = count + other.count;
+            merged.errors = errors + other.errors;
+            merged.bytes = bytes + other.bytes;
+            return merged;
+        }
+
+        void print(int seconds) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            System.out.printf("requests=%d errors=%d throughput=%.1f/s mean-response=%d bytes%n",
+                    count, errors, count / (double) seconds, count == 0 ? 0 : bytes / count);
+            System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), count == 0 ? 0 : sorted[count - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+        }
+    }
+}
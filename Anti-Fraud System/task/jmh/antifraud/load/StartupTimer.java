@@ -0,0 +1,168 @@
+package antifraud.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time to first transaction: from launching the JVM until {@code POST /api/antifraud/transaction}
+ * first answers 200. Each startup mode is launched {@code --runs} times against the same prepared
+ * database and the results are written as JSON.
+ * <p>
+ * Modes: {@code default}, {@code fast-startup} (the profile), {@code fast-startup+aot} (with the classes
+ * from {@code processAot}) and {@code fast-startup+aot+cds} (also with the archive from {@code cdsArchive}).
+ * Run it through {@code ./gradlew startupTime}, which passes the application classpath.
+ */
+public final class StartupTimer {
+
+    private static final String MERCHANT = "loadtest-merchant:loadtest";
+    private static final int PORT = 28901;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+    private final String classpath;
+    private final Path workDirectory;
+    private final String database;
+
+    private StartupTimer(String classpath, Path workDirectory) {
+        this.classpath = classpath;
+        this.workDirectory = workDirectory;
+        this.database = "jdbc:h2:file:" + workDirectory.resolve("db").toAbsolutePath();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        Path workDirectory = Path.of(options.getOrDefault("work-dir", "build/startup"));
+        Path report = Path.of(options.getOrDefault("report", "build/reports/startup/results.json"));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        String archive = options.get("cds-archive");
+
+        Map<String, List<String>> modes = new LinkedHashMap<>();
+        modes.put("default", List.of());
+        modes.put("fast-startup", List.of("--spring.profiles.active=fast-startup"));
+        modes.put("fast-startup+aot", List.of("-Dspring.aot.enabled=true", "--spring.profiles.active=fast-startup"));
+        if (archive != null && Files.exists(Path.of(archive))) {
+            modes.put("fast-startup+aot+cds", List.of("-XX:SharedArchiveFile=" + archive, "-Dspring.aot.enabled=true",
+                    "--spring.profiles.active=fast-startup"));
+        }
+
+        StartupTimer timer = new StartupTimer(options.get("classpath"), workDirectory);
+        timer.prepare();
+
+        StringJoiner json = new StringJoiner(",\n  ", "{\n  ", "\n}\n");
+        for (Map.Entry<String, List<String>> mode : modes.entrySet()) {
+            long[] millis = new long[runs];
+            for (int run = 0; run < runs; run++) {
+                millis[run] = timer.timeToFirstTransaction(mode.getKey() + "-" + run, mode.getValue());
+            }
+            long[] sorted = millis.clone();
+            Arrays.sort(sorted);
+            System.out.printf("%-22s median %5d ms  runs %s%n", mode.getKey(), sorted[runs / 2], Arrays.toString(millis));
+            json.add("\"" + mode.getKey() + "\": {\"medianMillis\": " + sorted[runs / 2]
+                    + ", \"runsMillis\": " + Arrays.toString(millis) + "}");
+        }
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Files.writeString(report, json.toString());
+    }
+
+    // The fast-startup profile only validates the schema, so it is created beforehand, with the users
+    private void prepare() throws Exception {
+        deleteRecursively(workDirectory);
+        Files.createDirectories(workDirectory);
+        Process process = launch("prepare", List.of());
+        try {
+            long deadline = System.nanoTime() + Duration.ofMinutes(2).toNanos();
+            while (true) {
+                try {
+                    LoadTest.setUp("http://localhost:" + PORT, MERCHANT);
+                    break;
+                } catch (IOException e) {
+                    if (System.nanoTime() > deadline || !process.isAlive()) {
+                        throw new IllegalStateException("The application did not start, see " + workDirectory.resolve("prepare.log"), e);
+                    }
+                    Thread.sleep(100);
+                }
+            }
+        } finally {
+            stop(process);
+        }
+    }
+
+    private long timeToFirstTransaction(String name, List<String> arguments) throws Exception {
+        String authorization = "Basic " + Base64.getEncoder().encodeToString(MERCHANT.getBytes(StandardCharsets.UTF_8));
+        HttpRequest transaction = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/api/antifraud/transaction"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", authorization)
+                .POST(HttpRequest.BodyPublishers.ofString("{\"amount\":150,\"ip\":\"10.0.0.1\",\"number\":\"4000008449433403\","
+                        + "\"region\":\"EAP\",\"date\":\"2024-01-01T00:00:00\"}"))
+                .build();
+
+        long start = System.nanoTime();
+        Process process = launch(name, arguments);
+        try {
+            long deadline = start + Duration.ofMinutes(2).toNanos();
+            while (System.nanoTime() < deadline && process.isAlive()) {
+                try {
+                    if (client.send(transaction, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return Duration.ofNanos(System.nanoTime() - start).toMillis();
+                    }
+                } catch (IOException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(5);
+            }
+            throw new IllegalStateException("No transaction was accepted, see " + workDirectory.resolve(name + ".log"));
+        } finally {
+            stop(process);
+        }
+    }
+
+    private Process launch(String name, List<String> arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        arguments.stream().filter(argument -> !argument.startsWith("--")).forEach(command::add);
+        command.addAll(List.of("-cp", classpath, "antifraud.AntiFraudApplication",
+                "--server.port=" + PORT, "--spring.datasource.url=" + database));
+        arguments.stream().filter(argument -> argument.startsWith("--")).forEach(command::add);
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(workDirectory.resolve(name + ".log").toFile())
+                .start();
+    }
+
+    private static void stop(Process process) throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        File file = path.toFile();
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                deleteRecursively(child.toPath());
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
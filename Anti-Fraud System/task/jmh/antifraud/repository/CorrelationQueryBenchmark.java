@@ -0,0 +1,99 @@
+package antifraud.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The database side of the correlation rules ({@link TransactionRepository#findRegionsAndIps}) on
+ * an in-memory H2 table of growing size. Every card has one transaction a minute, so each query
+ * window holds about 60 rows whatever the table size; with the index the latency should stay flat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorrelationQueryBenchmark {
+
+    private static final int ROWS_PER_CARD = 1000;
+    private static final LocalDateTime START = LocalDateTime.of(2022, 1, 1, 0, 0);
+
+    // Same statement Hibernate generates for the projection query
+    private static final String QUERY = "select distinct region, ip from transaction where number = ? and date > ? and date <= ?";
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private Connection connection;
+    private PreparedStatement query;
+    private int cards;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:correlation;DB_CLOSE_DELAY=-1");
+        cards = Math.max(1, rows / ROWS_PER_CARD);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("drop table if exists transaction");
+            statement.execute("create table transaction (id bigint primary key, amount bigint, date timestamp(6), " +
+                    "feedback varchar(255), ip varchar(255), number varchar(255), region varchar(255), result varchar(255))");
+            // Row x belongs to card x % cards and is dated x / cards minutes after the start
+            statement.execute("insert into transaction select x, 100, dateadd(minute, x / " + cards + ", timestamp '2022-01-01 00:00:00'), " +
+                    "null, '192.168.0.' || mod(x, 5), '4' || lpad(mod(x, " + cards + "), 15, '0'), 'R' || mod(x, 7), 'ALLOWED' " +
+                    "from system_range(0, " + (rows - 1) + ")");
+            if (indexed) {
+                statement.execute("create index idx_transaction_number_date on transaction (number, date, region, ip)");
+            }
+        }
+        query = connection.prepareStatement(QUERY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("drop table transaction");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public void findRegionsAndIps(Blackhole blackhole) throws SQLException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDateTime to = START.plusMinutes(random.nextInt(ROWS_PER_CARD));
+        query.setString(1, "4" + String.format("%015d", random.nextInt(cards)));
+        query.setTimestamp(2, Timestamp.valueOf(to.minusHours(1)));
+        query.setTimestamp(3, Timestamp.valueOf(to));
+        try (ResultSet resultSet = query.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getString(1));
+                blackhole.consume(resultSet.getString(2));
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package antifraud.service;
+
+import antifraud.cache.FraudLimitsHolder;
+import antifraud.cache.VelocityIndex;
+import antifraud.persistence.CardStatisticsWriter;
+import antifraud.persistence.TransactionArchive;
+import antifraud.persistence.TransactionWriter;
+import antifraud.repository.CardStatisticsRepository;
+import antifraud.repository.FraudLimitsRepository;
+import antifraud.repository.JdbcTransactionHistoryReader;
+import antifraud.repository.StolenCardRepository;
+import antifraud.repository.SuspiciousIPRepository;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionIdSequence;
+import antifraud.repository.TransactionRepository;
+import antifraud.request.TransactionRequest;
+import antifraud.response.TransactionResponse;
+import antifraud.rules.AmountRule;
+import antifraud.rules.IpCorrelationRule;
+import antifraud.rules.RegionCorrelationRule;
+import antifraud.rules.RuleAudit;
+import antifraud.rules.RuleEngine;
+import antifraud.rules.StolenCardRule;
+import antifraud.rules.SuspiciousIpRule;
+import antifraud.user.AuthenticatedUser;
+import antifraud.user.Role;
+import antifraud.user.User;
+import antifraud.validation.Validators;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TransactionService#evaluateTransaction} with in-memory repositories, so only the rule
+ * evaluation and the in-memory caches are measured.
+ * <p>
+ * Each card gets a transaction every {@code 1h / historyDepth}, so the correlation window of every
+ * evaluated transaction holds {@code historyDepth} earlier ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    private static final int CARDS = 1024;
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final String[] IPS = {"192.168.0.1", "192.168.0.2", "192.168.0.3", "192.168.0.4"};
+    private static final LocalDateTime START = LocalDateTime.of(2022, 1, 22, 0, 0);
+
+    @Param({"0", "1000", "100000"})
+    public int blacklistSize;
+
+    @Param({"0", "10", "100"})
+    public int historyDepth;
+
+    @Param({"false", "true"})
+    public boolean fastDecision;
+
+    private final AtomicLong counter = new AtomicLong();
+    private TransactionService transactionService;
+    private VelocityIndex velocityIndex;
+    private AuthenticatedUser merchant;
+    private String[] cards;
+    private long stepSeconds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> stolenCards = new ArrayList<>(blacklistSize);
+        List<String> suspiciousIps = new ArrayList<>(blacklistSize);
+        for (int i = 0; i < blacklistSize; i++) {
+            stolenCards.add(String.format("5%015d", i));
+            suspiciousIps.add("10." + (i >>> 16 & 255) + "." + (i >>> 8 & 255) + "." + (i & 255));
+        }
+        StolenCardService stolenCardService = new StolenCardService(
+                Stubs.stub(StolenCardRepository.class, Map.of("findAllNumbers", args -> stolenCards)), null, null, 1000, 0);
+        stolenCardService.loadBlacklist();
+        SuspiciousIpService suspiciousIpService = new SuspiciousIpService(
+                Stubs.stub(SuspiciousIPRepository.class, Map.of("findAllIps", args -> suspiciousIps)), null, null, 1000, 0);
+        suspiciousIpService.loadBlacklist();
+
+        // Saved transactions are dropped; the velocity index holds the history the rules look at
+        TransactionRepository transactionRepository = Stubs.stub(TransactionRepository.class, Map.of(
+                "save", args -> args[0],
+                "findTopByOrderByDateDesc", args -> Optional.empty(),
+                "findRegionsAndIps", args -> List.of()));
+        PlatformTransactionManager transactionManager = Stubs.stub(PlatformTransactionManager.class, Map.of(
+                "getTransaction", args -> new SimpleTransactionStatus(),
+                "commit", args -> null,
+                "rollback", args -> null));
+        FraudLimitsHolder fraudLimitsHolder = new FraudLimitsHolder(
+                Stubs.stub(FraudLimitsRepository.class, Map.of(
+                        "findById", args -> Optional.empty(),
+                        "save", args -> args[0])),
+                transactionManager);
+
+        // Nothing is archived: the catalog is only read on startup
+        TransactionArchive transactionArchive = new TransactionArchive(null, Stubs.stub(DataSource.class, Map.of()),
+                transactionManager, "unused", 1, 1);
+        TransactionHistoryReader historyReader = new JdbcTransactionHistoryReader(Stubs.stub(DataSource.class, Map.of()),
+                transactionArchive, 1);
+        velocityIndex = new VelocityIndex(transactionRepository, historyReader, VelocityIndex.WINDOW, 1000, Duration.ofMinutes(5));
+        velocityIndex.rebuild(new AtomicLong());
+        CardStatisticsWriter cardStatisticsWriter = new CardStatisticsWriter(
+                Stubs.stub(CardStatisticsRepository.class, Map.of(
+                        "findById", args -> Optional.empty(),
+                        "save", args -> args[0])),
+                transactionRepository, historyReader, transactionArchive, transactionManager);
+        TransactionWriter transactionWriter = new TransactionWriter(transactionRepository,
+                new StaticListableBeanFactory().getBeanProvider(TransactionIdSequence.class), cardStatisticsWriter, transactionManager,
+                false, "unused", false, 1, 1, 0, Duration.ZERO);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RuleEngine ruleEngine = new RuleEngine(List.of(
+                new SuspiciousIpRule(suspiciousIpService),
+                new StolenCardRule(stolenCardService),
+                new AmountRule(),
+                new RegionCorrelationRule(),
+                new IpCorrelationRule()), meterRegistry, new RuleAudit(meterRegistry, false, 0), Set.of(), fastDecision);
+
+        transactionService = new TransactionService(transactionRepository, fraudLimitsHolder, velocityIndex,
+                transactionWriter, cardStatisticsWriter, null, ruleEngine, historyReader, new EvaluationShards(meterRegistry, 0, 10000), meterRegistry, 10000, 1000);
+
+        User user = new User("merchant", "merchant", "unused");
+        user.setRole(Role.MERCHANT);
+        user.setLocked(false);
+        merchant = new AuthenticatedUser(user);
+
+        cards = new String[CARDS];
+        for (int i = 0; i < CARDS; i++) {
+            cards[i] = withCheckDigit(String.format("4%014d", i));
+        }
+
+        // With no history the next transaction of a card falls just outside the window
+        long windowSeconds = VelocityIndex.WINDOW.toSeconds();
+        stepSeconds = historyDepth == 0 ? windowSeconds + 1 : windowSeconds / historyDepth;
+        for (int i = 0; i < CARDS * historyDepth; i++) {
+            transactionService.evaluateTransaction(merchant, nextRequest());
+        }
+    }
+
+    // Transactions are only accepted for card numbers that pass the Luhn check
+    private static String withCheckDigit(String digits) {
+        for (int check = 0; ; check++) {
+            if (Validators.isValidCardNumber(digits + check)) {
+                return digits + check;
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void sweep() {
+        velocityIndex.sweep();
+    }
+
+    @Benchmark
+    public TransactionResponse evaluate() {
+        return transactionService.evaluateTransaction(merchant, nextRequest());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public TransactionResponse evaluateConcurrent() {
+        return transactionService.evaluateTransaction(merchant, nextRequest());
+    }
+
+    private TransactionRequest nextRequest() {
+        long n = counter.getAndIncrement();
+        int card = (int) (n % CARDS);
+        long round = n / CARDS;
+        return new TransactionRequest(
+                100 + n % 2000,
+                IPS[(int) (round & 3)],
+                cards[card],
+                REGIONS[(int) (round % 3)],
+                START.plusSeconds(round * stepSeconds));
+    }
+}
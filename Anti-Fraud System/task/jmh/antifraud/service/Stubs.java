@@ -0,0 +1,33 @@
+package antifraud.service;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Stand-ins for repositories and other infrastructure in benchmarks: a JDK proxy that answers the
+ * given methods by name and fails on anything else, so a benchmark never silently measures a no-op.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            Function<Object[], Object> implementation = methods.get(method.getName());
+            if (implementation != null) {
+                return implementation.apply(args);
+            }
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> self == args[0];
+                    case "hashCode" -> System.identityHashCode(self);
+                    default -> type.getSimpleName() + " stub";
+                };
+            }
+            throw new UnsupportedOperationException("Not stubbed: " + method);
+        });
+        return type.cast(proxy);
+    }
+}
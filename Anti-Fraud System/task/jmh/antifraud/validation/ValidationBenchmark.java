@@ -0,0 +1,44 @@
+package antifraud.validation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The request validators. Run with {@code -prof gc}: gc.alloc.rate.norm should be 0 B/op for every method.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    public String cardNumber = "4000008449433403";
+    public String ip = "192.168.100.254";
+    public String region = "SSA";
+
+    @Benchmark
+    public boolean isValidCardNumber() {
+        return Validators.isValidCardNumber(cardNumber);
+    }
+
+    @Benchmark
+    public long parseIPv4() {
+        return Validators.parseIPv4(ip, false);
+    }
+
+    @Benchmark
+    public boolean isValidRegion() {
+        return Validators.isValidRegion(region);
+    }
+}
@@ -2,8 +2,10 @@ package antifraud;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class AntiFraudApplication {
     public static void main(String[] args) {
         SpringApplication.run(AntiFraudApplication.class, args);
@@ -0,0 +1,88 @@
+package antifraud.cache;
+
+import antifraud.validation.Validators;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the stolen card table. Digit strings with a positive packed form are kept as
+ * packed longs, other values are kept as strings.
+ */
+public final class CardBlacklist {
+
+    private volatile LongHashSet numbers = LongHashSet.EMPTY;
+    private final Set<String> others = ConcurrentHashMap.newKeySet();
+
+    public boolean contains(String number) {
+        long packed = pack(number);
+        return packed > 0 ? numbers.contains(packed) : others.contains(number);
+    }
+
+    public int size() {
+        return numbers.size() + others.size();
+    }
+
+    public synchronized void load(Collection<String> cardNumbers) {
+        long[] packed = new long[cardNumbers.size()];
+        int n = 0;
+        others.clear();
+        for (String number : cardNumbers) {
+            long value = pack(number);
+            if (value > 0) {
+                packed[n++] = value;
+            } else {
+                others.add(number);
+            }
+        }
+        numbers = LongHashSet.of(packed, n);
+    }
+
+    public synchronized void add(String number) {
+        long packed = pack(number);
+        if (packed > 0) {
+            numbers = numbers.with(packed);
+        } else {
+            others.add(number);
+        }
+    }
+
+    /**
+     * Adds many numbers with a single copy of the table.
+     *
+     * @param packed values from {@link #pack}, the first {@code count} are used
+     * @param others numbers that cannot be packed
+     */
+    public synchronized void addAll(long[] packed, int count, Collection<String> others) {
+        numbers = numbers.withAll(packed, count);
+        this.others.addAll(others);
+    }
+
+    public synchronized void remove(String number) {
+        long packed = pack(number);
+        if (packed > 0) {
+            numbers = numbers.without(packed);
+        } else {
+            others.remove(number);
+        }
+    }
+
+    /**
+     * The positive values of {@link Validators#packCardNumber}: every digit string of up to 18 digits and
+     * part of the 19-digit ones.
+     *
+     * @return the packed number, or -1 if the string cannot be packed
+     */
+    public static long pack(String number) {
+        long packed = Validators.packCardNumber(number);
+        return packed > 0 ? packed : -1;
+    }
+
+    /**
+     * Reverses {@link #pack}, including any leading zeros.
+     */
+    public static String unpack(long packed) {
+        return Validators.unpackCardNumber(packed);
+    }
+}
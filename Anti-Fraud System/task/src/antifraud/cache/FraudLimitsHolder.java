@@ -0,0 +1,117 @@
+package antifraud.cache;
+
+import antifraud.entity.FraudLimits;
+import antifraud.repository.FraudLimitsRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Serves the adaptive fraud limits from an immutable snapshot. Feedback adjustments are applied
+ * with compare-and-set on the snapshot, and the newest snapshot is then written to the single
+ * {@link FraudLimits} row. An adjustment made inside a transaction waits until it commits, so
+ * feedback that is rolled back never moves the limits. The row is read on first use rather than at startup.
+ */
+@Component
+public class FraudLimitsHolder {
+
+    private static final long LIMITS_ID = 1L;
+
+    private final FraudLimitsRepository fraudLimitsRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicReference<Limits> current = new AtomicReference<>();
+    private final ReentrantLock persistLock = new ReentrantLock();
+    private Limits persisted;
+
+    public record Limits(long maxAllowed, long maxManualProcessing) {
+    }
+
+    @Autowired
+    public FraudLimitsHolder(FraudLimitsRepository fraudLimitsRepository, PlatformTransactionManager transactionManager) {
+        this.fraudLimitsRepository = fraudLimitsRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Persist in a transaction of its own, also needed when called back after the caller's transaction committed
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    private Limits initializeLimits() {
+        persistLock.lock();
+        try {
+            if (persisted == null) {
+                persisted = loadLimits();
+                current.compareAndSet(null, persisted);
+            }
+            return current.get();
+        } finally {
+            persistLock.unlock();
+        }
+    }
+
+    private Limits loadLimits() {
+        FraudLimits limits = fraudLimitsRepository.findById(LIMITS_ID).orElseGet(() -> {
+            FraudLimits newLimits = new FraudLimits();
+            newLimits.setMaxAllowed(200L);
+            newLimits.setMaxManualProcessing(1500L);
+            return fraudLimitsRepository.save(newLimits);
+        });
+        return new Limits(limits.getMaxAllowed(), limits.getMaxManualProcessing());
+    }
+
+    public Limits get() {
+        Limits limits = current.get();
+        return limits != null ? limits : initializeLimits();
+    }
+
+    /**
+     * Applies the adjustment atomically and persists the result, after the surrounding transaction
+     * commits if there is one. The adjustment may be called more than once under contention, so it
+     * must not have side effects.
+     */
+    public void update(UnaryOperator<Limits> adjustment) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(adjustment);
+                }
+            });
+            return;
+        }
+        apply(adjustment);
+    }
+
+    private void apply(UnaryOperator<Limits> adjustment) {
+        // The adjustment needs the stored limits, not an empty snapshot
+        get();
+        current.updateAndGet(adjustment);
+        persist();
+    }
+
+    private void persist() {
+        persistLock.lock();
+        try {
+            // Always write the newest snapshot; a concurrent update may already have written it
+            Limits latest = current.get();
+            if (latest.equals(persisted)) {
+                return;
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                FraudLimits limits = fraudLimitsRepository.findById(LIMITS_ID).orElseGet(FraudLimits::new);
+                limits.setMaxAllowed(latest.maxAllowed());
+                limits.setMaxManualProcessing(latest.maxManualProcessing());
+                fraudLimitsRepository.save(limits);
+            });
+            persisted = latest;
+        } finally {
+            persistLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package antifraud.cache;
+
+/**
+ * HyperLogLog distinct-value sketch over a plain {@code byte[]} of {@link #SIZE} registers, so it can be
+ * stored as a column. With 256 registers the standard error is about 6.5%; small counts are estimated
+ * by linear counting and are close to exact.
+ */
+public final class HyperLogLog {
+
+    public static final int SIZE = 256;
+    private static final int PRECISION = 8;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / SIZE);
+
+    private HyperLogLog() {
+    }
+
+    public static byte[] empty() {
+        return new byte[SIZE];
+    }
+
+    public static void add(byte[] registers, String value) {
+        long hash = hash(value);
+        int register = (int) (hash >>> (64 - PRECISION));
+        // Rank of the first set bit in the remaining bits, the register index bits shifted out
+        int rank = Long.numberOfLeadingZeros(hash << PRECISION | 1L << (PRECISION - 1)) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    public static long estimate(byte[] registers) {
+        double sum = 0;
+        int zeros = 0;
+        for (byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * SIZE * SIZE / sum;
+        if (estimate <= 2.5 * SIZE && zeros > 0) {
+            estimate = SIZE * Math.log((double) SIZE / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // FNV-1a over the characters, then the murmur3 finalizer so every bit depends on every character
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,127 @@
+package antifraud.cache;
+
+/**
+ * Immutable open-addressing set of primitive ints. Updates return a new set, so readers can
+ * share an instance without locking and a lookup never allocates.
+ */
+public final class IntHashSet {
+
+    public static final IntHashSet EMPTY = new IntHashSet(new int[2], false, 0);
+
+    // 0 marks a free slot, whether 0 itself is in the set is kept apart
+    private final int[] table;
+    private final boolean containsZero;
+    private final int size;
+
+    private IntHashSet(int[] table, boolean containsZero, int size) {
+        this.table = table;
+        this.containsZero = containsZero;
+        this.size = size;
+    }
+
+    public static IntHashSet of(int[] values, int count) {
+        int[] table = new int[capacityFor(count)];
+        boolean containsZero = false;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int value = values[i];
+            if (value == 0) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+            } else if (insert(table, value)) {
+                size++;
+            }
+        }
+        return new IntHashSet(table, containsZero, size);
+    }
+
+    public boolean contains(int value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == value) {
+                return true;
+            }
+            if (slot == 0) {
+                return false;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public IntHashSet with(int value) {
+        return withAll(new int[]{value}, 1);
+    }
+
+    public IntHashSet withAll(int[] values, int count) {
+        int[] merged = toArray(count);
+        System.arraycopy(values, 0, merged, size, count);
+        return of(merged, size + count);
+    }
+
+    public IntHashSet without(int value) {
+        if (!contains(value)) {
+            return this;
+        }
+        int[] remaining = new int[size - 1];
+        int n = 0;
+        if (containsZero && value != 0) {
+            remaining[n++] = 0;
+        }
+        for (int slot : table) {
+            if (slot != 0 && slot != value) {
+                remaining[n++] = slot;
+            }
+        }
+        return of(remaining, n);
+    }
+
+    private int[] toArray(int extra) {
+        int[] values = new int[size + extra];
+        int n = 0;
+        if (containsZero) {
+            values[n++] = 0;
+        }
+        for (int slot : table) {
+            if (slot != 0) {
+                values[n++] = slot;
+            }
+        }
+        return values;
+    }
+
+    private static boolean insert(int[] table, int value) {
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return false;
+            }
+            if (table[i] == 0) {
+                table[i] = value;
+                return true;
+            }
+        }
+    }
+
+    // Keep the load factor at or below one half
+    private static int capacityFor(int count) {
+        return Math.max(2, Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
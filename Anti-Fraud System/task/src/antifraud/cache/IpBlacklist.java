@@ -0,0 +1,90 @@
+package antifraud.cache;
+
+import antifraud.validation.Validators;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the suspicious IP table. Canonical IPv4 addresses are kept as packed ints,
+ * anything else (e.g. octets with leading zeros) is kept as the string it was stored with.
+ */
+public final class IpBlacklist {
+
+    private volatile IntHashSet addresses = IntHashSet.EMPTY;
+    private final Set<String> others = ConcurrentHashMap.newKeySet();
+
+    public boolean contains(String ip) {
+        long packed = pack(ip);
+        return packed >= 0 ? addresses.contains((int) packed) : others.contains(ip);
+    }
+
+    public int size() {
+        return addresses.size() + others.size();
+    }
+
+    public synchronized void load(Collection<String> ips) {
+        int[] packed = new int[ips.size()];
+        int n = 0;
+        others.clear();
+        for (String ip : ips) {
+            long value = pack(ip);
+            if (value >= 0) {
+                packed[n++] = (int) value;
+            } else {
+                others.add(ip);
+            }
+        }
+        addresses = IntHashSet.of(packed, n);
+    }
+
+    public synchronized void add(String ip) {
+        long packed = pack(ip);
+        if (packed >= 0) {
+            addresses = addresses.with((int) packed);
+        } else {
+            others.add(ip);
+        }
+    }
+
+    /**
+     * Adds many addresses with a single copy of the table.
+     *
+     * @param packed values from {@link #pack}, the first {@code count} are used
+     * @param others addresses that cannot be packed
+     */
+    public synchronized void addAll(long[] packed, int count, Collection<String> others) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (int) packed[i];
+        }
+        addresses = addresses.withAll(values, count);
+        this.others.addAll(others);
+    }
+
+    public synchronized void remove(String ip) {
+        long packed = pack(ip);
+        if (packed >= 0) {
+            addresses = addresses.without((int) packed);
+        } else {
+            others.remove(ip);
+        }
+    }
+
+    /**
+     * Packs a canonical dotted-quad address into the low 32 bits.
+     *
+     * @return the packed address, or -1 if the string is not a canonical IPv4 address
+     */
+    public static long pack(String ip) {
+        return Validators.parseIPv4(ip, true);
+    }
+
+    /**
+     * Reverses {@link #pack}.
+     */
+    public static String unpack(long packed) {
+        return (packed >>> 24 & 0xff) + "." + (packed >>> 16 & 0xff) + "." + (packed >>> 8 & 0xff) + "." + (packed & 0xff);
+    }
+}
@@ -0,0 +1,127 @@
+package antifraud.cache;
+
+/**
+ * Immutable open-addressing set of primitive longs. Updates return a new set, so readers can
+ * share an instance without locking and a lookup never allocates.
+ */
+public final class LongHashSet {
+
+    public static final LongHashSet EMPTY = new LongHashSet(new long[2], false, 0);
+
+    // 0 marks a free slot, whether 0 itself is in the set is kept apart
+    private final long[] table;
+    private final boolean containsZero;
+    private final int size;
+
+    private LongHashSet(long[] table, boolean containsZero, int size) {
+        this.table = table;
+        this.containsZero = containsZero;
+        this.size = size;
+    }
+
+    public static LongHashSet of(long[] values, int count) {
+        long[] table = new long[capacityFor(count)];
+        boolean containsZero = false;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            long value = values[i];
+            if (value == 0) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+            } else if (insert(table, value)) {
+                size++;
+            }
+        }
+        return new LongHashSet(table, containsZero, size);
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            long slot = table[i];
+            if (slot == value) {
+                return true;
+            }
+            if (slot == 0) {
+                return false;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public LongHashSet with(long value) {
+        return withAll(new long[]{value}, 1);
+    }
+
+    public LongHashSet withAll(long[] values, int count) {
+        long[] merged = toArray(count);
+        System.arraycopy(values, 0, merged, size, count);
+        return of(merged, size + count);
+    }
+
+    public LongHashSet without(long value) {
+        if (!contains(value)) {
+            return this;
+        }
+        long[] remaining = new long[size - 1];
+        int n = 0;
+        if (containsZero && value != 0) {
+            remaining[n++] = 0;
+        }
+        for (long slot : table) {
+            if (slot != 0 && slot != value) {
+                remaining[n++] = slot;
+            }
+        }
+        return of(remaining, n);
+    }
+
+    private long[] toArray(int extra) {
+        long[] values = new long[size + extra];
+        int n = 0;
+        if (containsZero) {
+            values[n++] = 0;
+        }
+        for (long slot : table) {
+            if (slot != 0) {
+                values[n++] = slot;
+            }
+        }
+        return values;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return false;
+            }
+            if (table[i] == 0) {
+                table[i] = value;
+                return true;
+            }
+        }
+    }
+
+    // Keep the load factor at or below one half
+    private static int capacityFor(int count) {
+        return Math.max(2, Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1);
+    }
+
+    private static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53ff53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
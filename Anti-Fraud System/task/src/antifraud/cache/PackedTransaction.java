@@ -0,0 +1,100 @@
+package antifraud.cache;
+
+import antifraud.entity.Region;
+import antifraud.validation.Validators;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * The fields of a transaction the in-memory caches keep, as primitives. Distinct strings always get
+ * distinct values, so comparing packed fields gives the same answers as comparing the strings.
+ *
+ * @param number the card number from {@link #packNumber}
+ * @param date   microseconds since the epoch (UTC), the precision of the table's timestamp column
+ * @param region the region ordinal
+ * @param ip     the address from {@link #packIp}
+ */
+public record PackedTransaction(long number, long date, byte region, long ip) {
+
+    public static final long INVALID = -1;
+
+    private static final Region[] REGIONS = Region.values();
+
+    /**
+     * @return the packed transaction, or {@code null} if a field has no packed form
+     */
+    public static PackedTransaction of(String number, LocalDateTime date, String region, String ip) {
+        long packedNumber = packNumber(number);
+        long packedIp = packIp(ip);
+        Region parsedRegion = Region.parse(region);
+        if (packedNumber == INVALID || packedIp == INVALID || parsedRegion == null || !Validators.isValidDate(date)) {
+            return null;
+        }
+        return new PackedTransaction(packedNumber, epochMicros(date), (byte) parsedRegion.ordinal(), packedIp);
+    }
+
+    /**
+     * {@link Validators#packCardNumber}, the same values {@link CardBlacklist#pack} uses.
+     *
+     * @return the packed number, or {@link #INVALID} for anything but 1 to 19 digits
+     */
+    public static long packNumber(String number) {
+        return Validators.packCardNumber(number);
+    }
+
+    /**
+     * Packs an IPv4 address into the low 32 bits and, above them, the number of digits of each octet,
+     * so {@code 10.0.0.1} and {@code 010.0.0.1} stay apart.
+     *
+     * @return the packed address, or {@link #INVALID}
+     */
+    public static long packIp(String ip) {
+        long address = Validators.parseIPv4(ip, false);
+        if (address == Validators.INVALID_IP) {
+            return INVALID;
+        }
+        long widths = 0;
+        int digits = 0;
+        for (int i = 0; i <= ip.length(); i++) {
+            if (i == ip.length() || ip.charAt(i) == '.') {
+                widths = widths << 2 | digits - 1;
+                digits = 0;
+            } else {
+                digits++;
+            }
+        }
+        return widths << 32 | address;
+    }
+
+    public static String unpackIp(long packed) {
+        StringBuilder ip = new StringBuilder(15);
+        for (int octet = 3; octet >= 0; octet--) {
+            String value = Long.toString(packed >>> octet * 8 & 0xFF);
+            for (long width = (packed >>> 32 + octet * 2 & 3) + 1; width > value.length(); width--) {
+                ip.append('0');
+            }
+            ip.append(value);
+            if (octet > 0) {
+                ip.append('.');
+            }
+        }
+        return ip.toString();
+    }
+
+    public static String regionName(byte region) {
+        return REGIONS[region].name();
+    }
+
+    /**
+     * The date in microseconds since the epoch; the date must pass {@link Validators#isValidDate}.
+     */
+    public static long epochMicros(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + date.getNano() / 1000;
+    }
+
+    public static LocalDateTime toDate(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+}
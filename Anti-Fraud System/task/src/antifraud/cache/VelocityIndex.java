@@ -0,0 +1,481 @@
+package antifraud.cache;
+
+import antifraud.entity.Region;
+import antifraud.entity.Transaction;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import antifraud.validation.Validators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-card sliding window of recent transactions used for the region/IP correlation rules.
+ * <p>
+ * The index only answers for windows it holds completely (everything after {@code horizon});
+ * for anything older {@link #correlate} returns {@code null} and the caller has to ask the database.
+ * Entries are kept as {@link PackedTransaction} fields in parallel primitive arrays, about 17 bytes each,
+ * in windows keyed by the packed card number. The few transactions without a packed form are kept aside as
+ * they are, by card number, for {@link #collect}; correlations that involve them are read from the database.
+ * <p>
+ * What is retained is measured back from the newest transaction, but never from later than now plus
+ * {@code antifraud.velocity.max-clock-skew}: dates are sent by merchants, and one far in the future must not
+ * evict everything else.
+ */
+@Component
+public class VelocityIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(VelocityIndex.class);
+
+    // Correlation rules look at the transactions of the last hour
+    public static final Duration WINDOW = Duration.ofHours(1);
+    private static final long WINDOW_MICROS = WINDOW.toNanos() / 1000;
+    // No date: no entry yet, or no limit
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionHistoryReader transactionHistoryReader;
+    private final Duration retention;
+    private final long retentionMicros;
+    private final int maxEntriesPerCard;
+    private final long maxClockSkewMicros;
+
+    private final ConcurrentHashMap<Long, CardWindow> windows = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<Unpacked>> unpacked = new ConcurrentHashMap<>();
+    private final AtomicLong latest = new AtomicLong(NONE);
+
+    // Everything dated at or after the horizon is in the index. Long.MAX_VALUE until the index is rebuilt.
+    private volatile long horizon = Long.MAX_VALUE;
+
+    @Autowired
+    public VelocityIndex(TransactionRepository transactionRepository,
+                         TransactionHistoryReader transactionHistoryReader,
+                         @Value("${antifraud.velocity.retention:PT2H}") Duration retention,
+                         @Value("${antifraud.velocity.max-entries-per-card:1000}") int maxEntriesPerCard,
+                         @Value("${antifraud.velocity.max-clock-skew:PT5M}") Duration maxClockSkew) {
+        if (retention.compareTo(WINDOW) < 0) {
+            throw new IllegalArgumentException("Velocity retention must cover at least " + WINDOW);
+        }
+        this.transactionRepository = transactionRepository;
+        this.transactionHistoryReader = transactionHistoryReader;
+        this.retention = retention;
+        this.retentionMicros = retention.toNanos() / 1000;
+        this.maxEntriesPerCard = maxEntriesPerCard;
+        this.maxClockSkewMicros = maxClockSkew.toNanos() / 1000;
+    }
+
+    public record Correlation(long regionCount, long ipCount) {
+    }
+
+    private record Unpacked(LocalDateTime date, String region, String ip) {
+    }
+
+    /**
+     * Counts the distinct regions and IPs, other than the transaction's own, used with the card in the hour
+     * up to the transaction's date.
+     *
+     * @return the counts, or {@code null} if the index does not hold the whole window
+     */
+    public Correlation correlate(PackedTransaction transaction) {
+        long from = transaction.date() - WINDOW_MICROS;
+        if (from < horizon) {
+            return null;
+        }
+        CardWindow window = windows.get(transaction.number());
+        if (window == null) {
+            return new Correlation(0, 0);
+        }
+        synchronized (window) {
+            if (from < window.truncatedAt) {
+                return null;
+            }
+            return window.correlate(transaction.date(), transaction.region(), transaction.ip());
+        }
+    }
+
+    /**
+     * Adds the regions and IPs of the card's entries dated in the hour up to {@code date} to the given sets.
+     * Used to merge the in-memory state into a database fallback, so it must not matter if an entry is in both.
+     */
+    public void collect(String number, LocalDateTime date, Set<String> regions, Set<String> ips) {
+        LocalDateTime from = date.minus(WINDOW);
+        List<Unpacked> aside = unpacked.get(number);
+        if (aside != null) {
+            synchronized (aside) {
+                for (Unpacked entry : aside) {
+                    if (entry.date().isAfter(from) && !entry.date().isAfter(date)) {
+                        regions.add(entry.region());
+                        ips.add(entry.ip());
+                    }
+                }
+            }
+        }
+        long packedNumber = PackedTransaction.packNumber(number);
+        if (packedNumber == PackedTransaction.INVALID || !Validators.isValidDate(date)) {
+            return;
+        }
+        CardWindow window = windows.get(packedNumber);
+        if (window == null) {
+            return;
+        }
+        long to = PackedTransaction.epochMicros(date);
+        synchronized (window) {
+            window.collect(to - WINDOW_MICROS, to, regions, ips);
+        }
+    }
+
+    public void record(PackedTransaction transaction) {
+        latest.accumulateAndGet(transaction.date(), Math::max);
+        // compute() keeps the add atomic with respect to the sweeper dropping empty windows
+        windows.compute(transaction.number(), (key, window) -> {
+            if (window == null) {
+                window = new CardWindow();
+            }
+            synchronized (window) {
+                window.add(transaction.date(), transaction.region(), transaction.ip());
+                if (window.size() > maxEntriesPerCard) {
+                    window.truncate(window.size() - maxEntriesPerCard);
+                }
+            }
+            return window;
+        });
+    }
+
+    /**
+     * Records a transaction that may have no packed form. One without is kept aside, and the card's window no
+     * longer answers for the hours that include it.
+     */
+    public void record(Transaction transaction) {
+        PackedTransaction packed = PackedTransaction.of(transaction.getNumber(), transaction.getDate(),
+                transaction.getRegion(), transaction.getIp());
+        if (packed != null) {
+            record(packed);
+            return;
+        }
+        if (transaction.getDate() == null) {
+            return;
+        }
+        unpacked.compute(transaction.getNumber(), (key, aside) -> {
+            if (aside == null) {
+                aside = new ArrayList<>();
+            }
+            synchronized (aside) {
+                aside.add(new Unpacked(transaction.getDate(), transaction.getRegion(), transaction.getIp()));
+            }
+            return aside;
+        });
+        // A date outside the packed range is never within an hour of a packed one
+        long number = PackedTransaction.packNumber(transaction.getNumber());
+        if (number == PackedTransaction.INVALID || !Validators.isValidDate(transaction.getDate())) {
+            return;
+        }
+        long date = PackedTransaction.epochMicros(transaction.getDate());
+        windows.compute(number, (key, window) -> {
+            if (window == null) {
+                window = new CardWindow();
+            }
+            synchronized (window) {
+                window.truncatedAt = Math.max(window.truncatedAt, date);
+            }
+            return window;
+        });
+    }
+
+    /**
+     * Takes back a transaction recorded with {@link #record(Transaction)} that was then not stored. One entry
+     * with the same fields is removed; the card's window keeps answering as if the entry had never been there.
+     */
+    public void remove(Transaction transaction) {
+        PackedTransaction packed = PackedTransaction.of(transaction.getNumber(), transaction.getDate(),
+                transaction.getRegion(), transaction.getIp());
+        if (packed == null) {
+            // The window stays truncated, which only sends more correlations to the database
+            unpacked.computeIfPresent(transaction.getNumber(), (key, aside) -> {
+                synchronized (aside) {
+                    aside.remove(new Unpacked(transaction.getDate(), transaction.getRegion(), transaction.getIp()));
+                    return aside.isEmpty() ? null : aside;
+                }
+            });
+            return;
+        }
+        windows.computeIfPresent(packed.number(), (key, window) -> {
+            synchronized (window) {
+                window.remove(packed.date(), packed.region(), packed.ip());
+            }
+            return window;
+        });
+    }
+
+    /**
+     * Streams the retained part of the history into the index; until it is done the index answers
+     * nothing and correlations are read from the database. Transactions recorded meanwhile are kept.
+     *
+     * @param loaded counts the transactions read so far
+     */
+    public void rebuild(AtomicLong loaded) {
+        LocalDateTime newest = transactionRepository.findTopByOrderByDateDesc()
+                .map(Transaction::getDate)
+                .orElse(null);
+        if (newest == null) {
+            horizon = NONE;
+            return;
+        }
+        LocalDateTime latestAllowed = LocalDateTime.now().plus(maxClockSkewMicros, ChronoUnit.MICROS);
+        if (newest.isAfter(latestAllowed)) {
+            newest = latestAllowed;
+        }
+
+        LocalDateTime from = newest.minus(retention);
+        transactionHistoryReader.forEachDatedAfter(from, transaction -> {
+            record(transaction);
+            loaded.incrementAndGet();
+        });
+        horizon = PackedTransaction.epochMicros(from);
+        log.info("Velocity index rebuilt from {} transactions after {}", loaded.get(), from);
+    }
+
+    @Scheduled(fixedDelayString = "${antifraud.velocity.sweep-interval:60000}")
+    public void sweep() {
+        long newest = latest.get();
+        if (newest == NONE || horizon == Long.MAX_VALUE) {
+            return;
+        }
+        newest = Math.min(newest, PackedTransaction.epochMicros(LocalDateTime.now()) + maxClockSkewMicros);
+        long cutoff = newest - retentionMicros;
+        if (cutoff > horizon) {
+            horizon = cutoff;
+        }
+        long covered = horizon;
+        for (Long number : windows.keySet()) {
+            windows.computeIfPresent(number, (key, window) -> {
+                synchronized (window) {
+                    window.evictBefore(cutoff);
+                    // Once the horizon has passed the truncation, an empty window says nothing more than no window
+                    return window.size() == 0 && window.truncatedAt <= covered ? null : window;
+                }
+            });
+        }
+        LocalDateTime cutoffDate = PackedTransaction.toDate(cutoff);
+        for (String number : unpacked.keySet()) {
+            unpacked.computeIfPresent(number, (key, aside) -> {
+                synchronized (aside) {
+                    aside.removeIf(entry -> entry.date().isBefore(cutoffDate));
+                    return aside.isEmpty() ? null : aside;
+                }
+            });
+        }
+    }
+
+    // Entries sorted by date in parallel arrays; the counts cover entries [head, size) = (anchor - 1h, anchor]
+    private static final class CardWindow {
+        private long[] dates = new long[4];
+        private byte[] regions = new byte[4];
+        private long[] ips = new long[4];
+        private int size;
+        private final int[] regionCounts = new int[Region.values().length];
+        private int distinctRegions;
+        // The distinct IPs among the counted entries; a card is used from only a few IPs in an hour
+        private long[] ipValues = new long[2];
+        private int[] ipCounts = new int[2];
+        private int distinctIps;
+        private long anchor = NONE;
+        private int head;
+        // Entries dated at or before this were dropped to respect the per-card cap, or could not be packed
+        private long truncatedAt = NONE;
+
+        int size() {
+            return size;
+        }
+
+        Correlation correlate(long date, byte region, long ip) {
+            if (anchor == NONE) {
+                return new Correlation(0, 0);
+            }
+            if (date >= anchor) {
+                slideTo(date);
+                return new Correlation(
+                        distinctRegions - (regionCounts[region] > 0 ? 1 : 0),
+                        distinctIps - (indexOfIp(ip) >= 0 ? 1 : 0));
+            }
+
+            // Out-of-order request: scan the part of the window it asks about
+            int seenRegions = 0;
+            long[] seenIps = new long[size];
+            int n = 0;
+            for (int i = upperBound(date - WINDOW_MICROS); i < size && dates[i] <= date; i++) {
+                seenRegions |= 1 << regions[i];
+                if (ips[i] != ip) {
+                    seenIps[n++] = ips[i];
+                }
+            }
+            Arrays.sort(seenIps, 0, n);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || seenIps[i] != seenIps[i - 1]) {
+                    distinct++;
+                }
+            }
+            return new Correlation(Integer.bitCount(seenRegions & ~(1 << region)), distinct);
+        }
+
+        void collect(long from, long to, Set<String> seenRegions, Set<String> seenIps) {
+            for (int i = upperBound(from); i < size && dates[i] <= to; i++) {
+                seenRegions.add(PackedTransaction.regionName(regions[i]));
+                seenIps.add(PackedTransaction.unpackIp(ips[i]));
+            }
+        }
+
+        void add(long date, byte region, long ip) {
+            int position = upperBound(date);
+            if (size == dates.length) {
+                resize(size * 2);
+            }
+            System.arraycopy(dates, position, dates, position + 1, size - position);
+            System.arraycopy(regions, position, regions, position + 1, size - position);
+            System.arraycopy(ips, position, ips, position + 1, size - position);
+            dates[position] = date;
+            regions[position] = region;
+            ips[position] = ip;
+            size++;
+
+            if (anchor == NONE || date > anchor) {
+                count(position, 1);
+                slideTo(date);
+            } else if (date > anchor - WINDOW_MICROS) {
+                count(position, 1);
+            } else {
+                head++;
+            }
+        }
+
+        void remove(long date, byte region, long ip) {
+            int position = upperBound(date) - 1;
+            while (position >= 0 && dates[position] == date && (regions[position] != region || ips[position] != ip)) {
+                position--;
+            }
+            if (position < 0 || dates[position] != date) {
+                return;
+            }
+            if (position >= head) {
+                count(position, -1);
+            } else {
+                head--;
+            }
+            size--;
+            System.arraycopy(dates, position + 1, dates, position, size - position);
+            System.arraycopy(regions, position + 1, regions, position, size - position);
+            System.arraycopy(ips, position + 1, ips, position, size - position);
+        }
+
+        void evictBefore(long cutoff) {
+            int n = 0;
+            while (n < size && dates[n] < cutoff) {
+                n++;
+            }
+            drop(n);
+        }
+
+        void truncate(int n) {
+            truncatedAt = Math.max(truncatedAt, dates[n - 1]);
+            drop(n);
+        }
+
+        private void drop(int n) {
+            if (n == 0) {
+                return;
+            }
+            for (int i = head; i < n; i++) {
+                count(i, -1);
+            }
+            size -= n;
+            System.arraycopy(dates, n, dates, 0, size);
+            System.arraycopy(regions, n, regions, 0, size);
+            System.arraycopy(ips, n, ips, 0, size);
+            head = Math.max(0, head - n);
+            if (dates.length > 16 && size < dates.length / 4) {
+                resize(dates.length / 2);
+            }
+        }
+
+        private void resize(int capacity) {
+            dates = Arrays.copyOf(dates, capacity);
+            regions = Arrays.copyOf(regions, capacity);
+            ips = Arrays.copyOf(ips, capacity);
+        }
+
+        private void slideTo(long date) {
+            anchor = date;
+            long from = date - WINDOW_MICROS;
+            while (head < size && dates[head] <= from) {
+                count(head, -1);
+                head++;
+            }
+        }
+
+        private void count(int entry, int delta) {
+            int regionCount = regionCounts[regions[entry]] += delta;
+            if (regionCount == 0) {
+                distinctRegions--;
+            } else if (regionCount == 1 && delta > 0) {
+                distinctRegions++;
+            }
+
+            int index = indexOfIp(ips[entry]);
+            if (index < 0) {
+                if (distinctIps == ipValues.length) {
+                    ipValues = Arrays.copyOf(ipValues, distinctIps * 2);
+                    ipCounts = Arrays.copyOf(ipCounts, distinctIps * 2);
+                }
+                index = distinctIps++;
+                ipValues[index] = ips[entry];
+                ipCounts[index] = 0;
+            }
+            if ((ipCounts[index] += delta) == 0) {
+                // Keep the distinct IPs packed at the front
+                distinctIps--;
+                ipValues[index] = ipValues[distinctIps];
+                ipCounts[index] = ipCounts[distinctIps];
+            }
+        }
+
+        private int indexOfIp(long ip) {
+            for (int i = 0; i < distinctIps; i++) {
+                if (ipValues[i] == ip) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // First position whose date is after the given one
+        private int upperBound(long date) {
+            int lo = 0;
+            int hi = size;
+            if (hi > 0 && dates[hi - 1] <= date) {
+                return hi;
+            }
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (dates[mid] > date) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return lo;
+        }
+    }
+}
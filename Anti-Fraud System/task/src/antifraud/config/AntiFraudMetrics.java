@@ -0,0 +1,47 @@
+package antifraud.config;
+
+import antifraud.cache.FraudLimitsHolder;
+import antifraud.service.StolenCardService;
+import antifraud.service.SuspiciousIpService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gauges for the state the fraud decisions depend on: {@code antifraud.blacklist.size} (tag {@code list})
+ * and the current adaptive limits, {@code antifraud.limits} (tag {@code limit}).
+ */
+@Component
+public class AntiFraudMetrics implements MeterBinder {
+
+    private final StolenCardService stolenCardService;
+    private final SuspiciousIpService suspiciousIpService;
+    private final FraudLimitsHolder fraudLimitsHolder;
+
+    @Autowired
+    public AntiFraudMetrics(StolenCardService stolenCardService,
+                            SuspiciousIpService suspiciousIpService,
+                            FraudLimitsHolder fraudLimitsHolder) {
+        this.stolenCardService = stolenCardService;
+        this.suspiciousIpService = suspiciousIpService;
+        this.fraudLimitsHolder = fraudLimitsHolder;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("antifraud.blacklist.size", stolenCardService, StolenCardService::blacklistSize)
+                .tag("list", "stolen-card")
+                .register(registry);
+        Gauge.builder("antifraud.blacklist.size", suspiciousIpService, SuspiciousIpService::blacklistSize)
+                .tag("list", "suspicious-ip")
+                .register(registry);
+        Gauge.builder("antifraud.limits", fraudLimitsHolder, holder -> holder.get().maxAllowed())
+                .tag("limit", "max-allowed")
+                .register(registry);
+        Gauge.builder("antifraud.limits", fraudLimitsHolder, holder -> holder.get().maxManualProcessing())
+                .tag("limit", "max-manual-processing")
+                .register(registry);
+    }
+}
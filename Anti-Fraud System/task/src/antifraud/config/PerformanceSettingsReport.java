@@ -0,0 +1,118 @@
+package antifraud.config;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.spi.SqlStatementLogger;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.query.spi.QueryEngine;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Logs the settings that matter for throughput once the application is ready, so a deployment can be
+ * checked against the {@code prod} profile from its startup log. Values are read back from the
+ * components that use them, not from the properties, so defaults and profile-specific wiring show as they are.
+ */
+@Component
+public class PerformanceSettingsReport {
+
+    private static final Logger log = LoggerFactory.getLogger(PerformanceSettingsReport.class);
+
+    // Read by the application's own beans straight from the environment, where application.properties sets them
+    private static final List<String> PROPERTIES = List.of(
+            "antifraud.virtual-threads.enabled",
+            "antifraud.shards.count",
+            "antifraud.write-behind.enabled",
+            "antifraud.rules.fast-decision");
+
+    private final Environment environment;
+    private final DataSource dataSource;
+    private final EntityManagerFactory entityManagerFactory;
+    private final ObjectMapper objectMapper;
+    private final ObjectProvider<OpenEntityManagerInViewInterceptor> openInView;
+
+    @Autowired
+    public PerformanceSettingsReport(Environment environment, DataSource dataSource,
+                                     EntityManagerFactory entityManagerFactory, ObjectMapper objectMapper,
+                                     ObjectProvider<OpenEntityManagerInViewInterceptor> openInView) {
+        this.environment = environment;
+        this.dataSource = dataSource;
+        this.entityManagerFactory = entityManagerFactory;
+        this.objectMapper = objectMapper;
+        this.openInView = openInView;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void report() {
+        StringBuilder report = new StringBuilder("Performance settings (profiles ")
+                .append(Arrays.toString(environment.getActiveProfiles()))
+                .append("):");
+        PROPERTIES.forEach(key -> report.append("\n  ").append(key).append('=').append(environment.getProperty(key)));
+
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        SqlStatementLogger sqlLogger = sessionFactory.getJdbcServices().getSqlStatementLogger();
+        SessionFactoryOptions options = sessionFactory.getSessionFactoryOptions();
+        report.append("\n  hibernate: show-sql=").append(sqlLogger.isLogToStdout())
+                .append(", format-sql=").append(sqlLogger.isFormat())
+                .append(", jdbc-batch-size=").append(options.getJdbcBatchSize())
+                .append(", order-inserts=").append(options.isOrderInsertsEnabled())
+                .append(", query-plan-cache=").append(ConfigurationHelper.getInt(AvailableSettings.QUERY_PLAN_CACHE_MAX_SIZE,
+                        sessionFactory.getProperties(), QueryEngine.DEFAULT_QUERY_PLAN_MAX_COUNT));
+        report.append("\n  open-in-view=").append(openInView.getIfAvailable() != null)
+                .append(", json indent-output=").append(objectMapper.isEnabled(SerializationFeature.INDENT_OUTPUT));
+        report.append("\n  h2 query-cache-size=").append(new JdbcTemplate(dataSource).queryForObject(
+                "SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE SETTING_NAME = 'QUERY_CACHE_SIZE'", String.class));
+        // The pool as configured, after Boot's defaults were applied
+        if (dataSource instanceof HikariDataSource hikari) {
+            report.append("\n  hikari pool: minimum-idle=").append(hikari.getMinimumIdle())
+                    .append(", maximum-pool-size=").append(hikari.getMaximumPoolSize())
+                    .append(", connection-timeout=").append(hikari.getConnectionTimeout()).append("ms");
+        }
+        report.append("\n  logging: ").append(String.join(", ", rootAppenders()));
+        log.info(report.toString());
+    }
+
+    // Whether logging is asynchronous depends on the profile in logback-spring.xml, so ask logback
+    private static List<String> rootAppenders() {
+        ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
+        if (!(loggerFactory instanceof LoggerContext context)) {
+            return List.of(loggerFactory.getClass().getSimpleName());
+        }
+        List<String> appenders = new ArrayList<>();
+        Iterator<Appender<ILoggingEvent>> iterator = context.getLogger(Logger.ROOT_LOGGER_NAME).iteratorForAppenders();
+        while (iterator.hasNext()) {
+            Appender<ILoggingEvent> appender = iterator.next();
+            if (appender instanceof AsyncAppender async) {
+                appenders.add(appender.getName() + " async, queue-size=" + async.getQueueSize()
+                        + ", never-block=" + async.isNeverBlock());
+            } else {
+                appenders.add(appender.getName() + " synchronous");
+            }
+        }
+        return appenders;
+    }
+}
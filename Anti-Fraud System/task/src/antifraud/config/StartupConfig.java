@@ -0,0 +1,48 @@
+package antifraud.config;
+
+import antifraud.persistence.TransactionWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Startup support for the {@code fast-startup} profile and the class-data-sharing training run.
+ * <p>
+ * With {@code antifraud.startup.exit-when-ready} the application stops as soon as it is ready, which is
+ * what the build's {@code cdsArchive} task needs to dump the classes loaded during startup.
+ */
+@Configuration
+public class StartupConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupConfig.class);
+
+    private final boolean exitWhenReady;
+
+    @Autowired
+    public StartupConfig(@Value("${antifraud.startup.exit-when-ready:false}") boolean exitWhenReady) {
+        this.exitWhenReady = exitWhenReady;
+    }
+
+    // Journalled transactions from before a crash must be replayed before the first request, even with lazy initialization
+    @Bean
+    static LazyInitializationExcludeFilter eagerTransactionWriter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(TransactionWriter.class);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ready(ApplicationReadyEvent event) {
+        log.info("Ready {} ms after JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+        if (exitWhenReady) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+}
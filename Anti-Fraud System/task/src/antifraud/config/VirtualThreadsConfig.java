@@ -0,0 +1,69 @@
+package antifraud.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs Tomcat's request handling and the MVC async work (streamed history) on virtual threads
+ * when {@code antifraud.virtual-threads.enabled} is set. Needs a Java 21 runtime; the executor is
+ * looked up reflectively so the application still builds for Java 17.
+ * <p>
+ * With virtual threads the Tomcat thread pool no longer caps concurrency: {@code server.tomcat.max-connections}
+ * does, and database work is bounded by the Hikari pool.
+ * <p>
+ * The property is read when the beans are created rather than through a condition, because AOT
+ * processing (the fast-startup build) would evaluate a condition once, at build time.
+ */
+@Configuration
+public class VirtualThreadsConfig implements WebMvcConfigurer {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+    // null when disabled
+    private final ExecutorService executor;
+
+    @Autowired
+    public VirtualThreadsConfig(@Value("${antifraud.virtual-threads.enabled:false}") boolean enabled) {
+        this.executor = enabled ? newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            log.info("Handling requests on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("antifraud.virtual-threads.enabled needs Java 21 or later, running on "
+                    + Runtime.version(), e);
+        }
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (executor != null) {
+                protocolHandler.setExecutor(executor);
+            }
+        };
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if (executor != null) {
+            configurer.setTaskExecutor(new TaskExecutorAdapter(executor));
+        }
+    }
+}
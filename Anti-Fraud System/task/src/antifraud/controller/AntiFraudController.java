@@ -1,31 +1,54 @@
 package antifraud.controller;
 
-import antifraud.entity.StolenCard;
-import antifraud.entity.SuspiciousIP;
 import antifraud.request.FeedbackRequest;
 import antifraud.request.StolenCardRequest;
 import antifraud.request.SuspiciousIPRequest;
 import antifraud.request.TransactionRequest;
+import antifraud.response.BulkImportResponse;
+import antifraud.response.CardSummaryResponse;
 import antifraud.response.DeleteIpResponse;
 import antifraud.response.StolenCardResponse;
 import antifraud.response.SuspiciousIPResponse;
 import antifraud.response.TransactionResponse;
+import antifraud.service.BulkFormat;
 import antifraud.service.StolenCardService;
 import antifraud.service.SuspiciousIpService;
 import antifraud.service.TransactionService;
+import antifraud.user.AuthenticatedUser;
+import antifraud.validation.Validators;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/api/antifraud")
 public class AntiFraudController {
 
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType(TEXT_CSV_VALUE);
+
     private final TransactionService transactionService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
     private SuspiciousIpService suspiciousIpService;
@@ -33,21 +56,30 @@ public class AntiFraudController {
     private StolenCardService stolenCardService;
 
     @Autowired
-    public AntiFraudController(TransactionService transactionService) {
+    public AntiFraudController(TransactionService transactionService, ObjectMapper objectMapper) {
         this.transactionService = transactionService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/transaction")
 
     public TransactionResponse evaluateTransaction(@RequestBody TransactionRequest request) {
+        // Use the authenticated user and amount from the request
+        return transactionService.evaluateTransaction(currentUser(), request);
+    }
+
+    @PostMapping("/transactions/batch")
+    public List<TransactionResponse> evaluateTransactions(@RequestBody List<TransactionRequest> requests) {
+        // One response per request, in the same order
+        return transactionService.evaluateTransactions(currentUser(), requests);
+    }
+
+    private AuthenticatedUser currentUser() {
         // Get the current authentication
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
 
-        // Retrieve the username from the authentication object
-        String username = authentication != null ? authentication.getName() : null;
-
-        // Use the username and amount from the request
-        return transactionService.evaluateTransaction(username, request);
+        // The principal carries the user's role and lock state
+        return authentication != null && authentication.getPrincipal() instanceof AuthenticatedUser user ? user : null;
     }
 
     @PostMapping("/suspicious-ip")
@@ -62,14 +94,34 @@ public class AntiFraudController {
         return new DeleteIpResponse("IP " + ip + " successfully removed!");
     }
 
-    @GetMapping("/suspicious-ip")
-    public ResponseEntity<List<SuspiciousIP>> getAllSuspiciousIPs() {
-        return ResponseEntity.ok(suspiciousIpService.findAll());
+    @PostMapping(value = "/suspicious-ip/bulk", consumes = TEXT_CSV_VALUE)
+    public BulkImportResponse importSuspiciousIpsCsv(InputStream body) throws IOException {
+        return suspiciousIpService.importIps(body, BulkFormat.CSV);
+    }
+
+    @PostMapping(value = "/suspicious-ip/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkImportResponse importSuspiciousIpsNdjson(InputStream body) throws IOException {
+        return suspiciousIpService.importIps(body, BulkFormat.NDJSON);
+    }
+
+    @GetMapping(value = "/suspicious-ip", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAllSuspiciousIPs() {
+        return stream(MediaType.APPLICATION_JSON, suspiciousIpService::forEachSuspiciousIp);
+    }
+
+    @GetMapping(value = "/suspicious-ip", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamSuspiciousIPs() {
+        return stream(MediaType.APPLICATION_NDJSON, suspiciousIpService::forEachSuspiciousIp);
+    }
+
+    @GetMapping(value = "/suspicious-ip", produces = TEXT_CSV_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportSuspiciousIPs() {
+        return csv("id,ip", suspiciousIpService::forEachSuspiciousIp, ip -> ip.id() + "," + csvField(ip.ip()));
     }
 
     @PostMapping("/stolencard")
     public StolenCardResponse addStolenCard(@RequestBody StolenCardRequest stolenCard) {
-        if (!StolenCardService.isValidCardNumber(stolenCard.number())) {
+        if (!Validators.isValidCardNumber(stolenCard.number())) {
             throw new IllegalArgumentException("Invalid card number");
         }
         return stolenCardService.save(stolenCard.number());
@@ -77,16 +129,36 @@ public class AntiFraudController {
 
     @DeleteMapping("/stolencard/{number}")
     public DeleteIpResponse deleteStolenCard(@PathVariable String number) {
-        if (!StolenCardService.isValidCardNumber(number)) {
+        if (!Validators.isValidCardNumber(number)) {
             throw new IllegalArgumentException("invalid card number");
         }
         stolenCardService.deleteByNumber(number);
         return new DeleteIpResponse("Card " + number + " successfully removed!");
     }
 
-    @GetMapping("/stolencard")
-    public ResponseEntity<List<StolenCard>> getAllStolenCards() {
-        return ResponseEntity.ok(stolenCardService.findAll());
+    @PostMapping(value = "/stolencard/bulk", consumes = TEXT_CSV_VALUE)
+    public BulkImportResponse importStolenCardsCsv(InputStream body) throws IOException {
+        return stolenCardService.importCards(body, BulkFormat.CSV);
+    }
+
+    @PostMapping(value = "/stolencard/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkImportResponse importStolenCardsNdjson(InputStream body) throws IOException {
+        return stolenCardService.importCards(body, BulkFormat.NDJSON);
+    }
+
+    @GetMapping(value = "/stolencard", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAllStolenCards() {
+        return stream(MediaType.APPLICATION_JSON, stolenCardService::forEachStolenCard);
+    }
+
+    @GetMapping(value = "/stolencard", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamStolenCards() {
+        return stream(MediaType.APPLICATION_NDJSON, stolenCardService::forEachStolenCard);
+    }
+
+    @GetMapping(value = "/stolencard", produces = TEXT_CSV_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportStolenCards() {
+        return csv("id,number", stolenCardService::forEachStolenCard, card -> card.id() + "," + csvField(card.number()));
     }
 
     @PutMapping("/transaction")
@@ -95,17 +167,108 @@ public class AntiFraudController {
         return ResponseEntity.ok(response);
     }
 
-    @GetMapping("/history")
-    public ResponseEntity<List<TransactionResponse>> getTransactionHistory() {
-        List<TransactionResponse> history = transactionService.getTransactionHistory();
-        return ResponseEntity.ok(history);
+    // Without a limit the whole history is streamed; with one it is a page of rows after the given id
+    @GetMapping(value = "/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getTransactionHistory(@RequestParam(defaultValue = "0") long afterId,
+                                                                       @RequestParam(required = false) Integer limit) {
+        return history(null, afterId, limit, MediaType.APPLICATION_JSON);
     }
 
-    @GetMapping("/history/{number}")
-    public ResponseEntity<List<TransactionResponse>> getTransactionHistoryByNumber(@PathVariable String number) {
-        List<TransactionResponse> history = transactionService.getTransactionHistoryByNumber(number);
-        return ResponseEntity.ok(history);
+    @GetMapping(value = "/history", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTransactionHistory(@RequestParam(defaultValue = "0") long afterId,
+                                                                          @RequestParam(required = false) Integer limit) {
+        return history(null, afterId, limit, MediaType.APPLICATION_NDJSON);
+    }
+
+    @GetMapping(value = "/history/{number}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getTransactionHistoryByNumber(@PathVariable String number,
+                                                                               @RequestParam(defaultValue = "0") long afterId,
+                                                                               @RequestParam(required = false) Integer limit) {
+        return history(number, afterId, limit, MediaType.APPLICATION_JSON);
     }
-}
 
+    @GetMapping(value = "/history/{number}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTransactionHistoryByNumber(@PathVariable String number,
+                                                                                  @RequestParam(defaultValue = "0") long afterId,
+                                                                                  @RequestParam(required = false) Integer limit) {
+        return history(number, afterId, limit, MediaType.APPLICATION_NDJSON);
+    }
+
+    @GetMapping("/history/{number}/summary")
+    public CardSummaryResponse getCardSummary(@PathVariable String number) {
+        return transactionService.summarize(number);
+    }
+
+    private ResponseEntity<StreamingResponseBody> history(String number, long afterId, Integer limit, MediaType mediaType) {
+        // Errors have to be raised before the body starts streaming
+        transactionService.checkTransactionHistory(number, limit);
+
+        return stream(mediaType, (Consumer<TransactionResponse> action) ->
+                transactionService.forEachTransaction(number, afterId, limit, action));
+    }
+
+    // A JSON array, or one object per line for NDJSON, written as the rows are read
+    private <T> ResponseEntity<StreamingResponseBody> stream(MediaType mediaType, Consumer<Consumer<T>> rows) {
+        StreamingResponseBody body = MediaType.APPLICATION_NDJSON.equals(mediaType)
+                ? out -> writeLines(out, rows)
+                : out -> writeArray(out, rows);
+        return ResponseEntity.ok().contentType(mediaType).body(body);
+    }
 
+    private <T> ResponseEntity<StreamingResponseBody> csv(String header, Consumer<Consumer<T>> rows, Function<T, String> line) {
+        StreamingResponseBody body = out -> {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(header);
+            writer.write('\n');
+            rows.accept(row -> {
+                try {
+                    writer.write(line.apply(row));
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(TEXT_CSV).body(body);
+    }
+
+    // Same output as serializing the whole list, without holding it in memory
+    private <T> void writeArray(OutputStream out, Consumer<Consumer<T>> rows) throws IOException {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = writer.createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            rows.accept(row -> {
+                try {
+                    writer.writeValue(generator, row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    // One compact JSON object per line
+    private <T> void writeLines(OutputStream out, Consumer<Consumer<T>> rows) throws IOException {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        BufferedOutputStream buffered = new BufferedOutputStream(out);
+        rows.accept(row -> {
+            try {
+                buffered.write(writer.writeValueAsBytes(row));
+                buffered.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        buffered.flush();
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.management.relation.RoleNotFoundException;
@@ -62,6 +63,13 @@ public class GlobalExceptionHandler {
         return new ErrorResponse("Invalid input: " + ex.getMessage());
     }
 
+    // Handle query parameters of the wrong type, e.g. a non-numeric afterId
+    @ExceptionHandler(MethodArgumentTypeMismatchException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorResponse handleMethodArgumentTypeMismatchException(MethodArgumentTypeMismatchException ex) {
+        return new ErrorResponse("Invalid input: " + ex.getName());
+    }
+
     @ExceptionHandler(EntityExistsException.class)
     @ResponseStatus(HttpStatus.CONFLICT)
     public ErrorResponse handleEntityExistsException(EntityExistsException ex) {
@@ -75,6 +83,12 @@ public class GlobalExceptionHandler {
         return new ErrorResponse(ex);
     }
 
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(ServiceBusyException.class)
+    public ErrorResponse handleServiceBusyException(ServiceBusyException ex) {
+        return new ErrorResponse(ex);
+    }
+
     // Handle RoleNotFoundException
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ExceptionHandler(RoleNotFoundException.class)
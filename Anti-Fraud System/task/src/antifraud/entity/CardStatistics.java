@@ -0,0 +1,137 @@
+package antifraud.entity;
+
+import antifraud.cache.HyperLogLog;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+import java.time.LocalDateTime;
+
+/**
+ * Running totals of one card's transactions, kept up to date as transactions and feedback are saved
+ * so a card's summary is a single-row lookup.
+ */
+@Entity
+public class CardStatistics {
+
+    @Id
+    private String number;
+
+    private long transactions;
+    private long totalAmount;
+    private long minAmount;
+    private long maxAmount;
+    private LocalDateTime lastSeen;
+    // Bit i is set once the card has a transaction in Region.ofCode(i)
+    private int regions;
+
+    private long allowed;
+    private long manualProcessing;
+    private long prohibited;
+
+    private long allowedFeedback;
+    private long manualProcessingFeedback;
+    private long prohibitedFeedback;
+
+    // HyperLogLog registers over the card's IPs
+    @Column(length = HyperLogLog.SIZE)
+    private byte[] ips;
+
+    public CardStatistics(String number) {
+        this.number = number;
+        this.ips = HyperLogLog.empty();
+    }
+
+    protected CardStatistics() {
+    }
+
+    public void add(Transaction transaction) {
+        long amount = transaction.getAmount();
+        minAmount = transactions == 0 ? amount : Math.min(minAmount, amount);
+        maxAmount = transactions == 0 ? amount : Math.max(maxAmount, amount);
+        transactions++;
+        totalAmount += amount;
+        if (lastSeen == null || transaction.getDate().isAfter(lastSeen)) {
+            lastSeen = transaction.getDate();
+        }
+        Region region = Region.parse(transaction.getRegion());
+        if (region != null) {
+            regions |= 1 << region.code();
+        }
+        HyperLogLog.add(ips, transaction.getIp());
+        if (transaction.getResult() != null) {
+            switch (transaction.getResult()) {
+                case ALLOWED -> allowed++;
+                case MANUAL_PROCESSING -> manualProcessing++;
+                case PROHIBITED -> prohibited++;
+            }
+        }
+        if (transaction.getFeedback() != null) {
+            addFeedback(transaction.getFeedback());
+        }
+    }
+
+    public void addFeedback(Result feedback) {
+        switch (feedback) {
+            case ALLOWED -> allowedFeedback++;
+            case MANUAL_PROCESSING -> manualProcessingFeedback++;
+            case PROHIBITED -> prohibitedFeedback++;
+        }
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public long getTransactions() {
+        return transactions;
+    }
+
+    public long getTotalAmount() {
+        return totalAmount;
+    }
+
+    public long getMinAmount() {
+        return minAmount;
+    }
+
+    public long getMaxAmount() {
+        return maxAmount;
+    }
+
+    public LocalDateTime getLastSeen() {
+        return lastSeen;
+    }
+
+    public int getRegions() {
+        return regions;
+    }
+
+    public long getAllowed() {
+        return allowed;
+    }
+
+    public long getManualProcessing() {
+        return manualProcessing;
+    }
+
+    public long getProhibited() {
+        return prohibited;
+    }
+
+    public long getAllowedFeedback() {
+        return allowedFeedback;
+    }
+
+    public long getManualProcessingFeedback() {
+        return manualProcessingFeedback;
+    }
+
+    public long getProhibitedFeedback() {
+        return prohibitedFeedback;
+    }
+
+    public long getDistinctIps() {
+        return HyperLogLog.estimate(ips);
+    }
+}
@@ -0,0 +1,68 @@
+package antifraud.entity;
+
+/**
+ * A world region. Sent by name, and stored by {@link #code()} in the mapped transaction log and the card
+ * statistics.
+ */
+public enum Region {
+    // Codes are written to disk: never change or reuse one
+    EAP(0), // East Asia and Pacific
+    ECA(1), // Europe and Central Asia
+    HIC(2), // High-Income countries
+    LAC(3), // Latin America and Caribbean
+    MENA(4), // The Middle East and North Africa
+    SA(5), // South Asia
+    SSA(6); // Sub-Saharan Africa
+
+    private final int code;
+
+    Region(int code) {
+        this.code = code;
+    }
+
+    /**
+     * A stable number for the region from 0 to 31, so it can index the bits of an int, independent of the
+     * declaration order.
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * Reverses {@link #code()}.
+     *
+     * @throws IllegalArgumentException for a code no region has
+     */
+    public static Region ofCode(int code) {
+        return switch (code) {
+            case 0 -> EAP;
+            case 1 -> ECA;
+            case 2 -> HIC;
+            case 3 -> LAC;
+            case 4 -> MENA;
+            case 5 -> SA;
+            case 6 -> SSA;
+            default -> throw new IllegalArgumentException("Unknown region code " + code);
+        };
+    }
+
+    /**
+     * Looks up a region by its name. Unlike {@code valueOf} it returns {@code null} for unknown
+     * names instead of throwing, so invalid requests cost no exception.
+     */
+    public static Region parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        return switch (name) {
+            case "EAP" -> EAP;
+            case "ECA" -> ECA;
+            case "HIC" -> HIC;
+            case "LAC" -> LAC;
+            case "MENA" -> MENA;
+            case "SA" -> SA;
+            case "SSA" -> SSA;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package antifraud.entity;
+
+/**
+ * The result of a transaction, also used for the feedback on it. Stored and sent by name, or by
+ * {@link #code()} in the mapped transaction log.
+ */
+public enum Result {
+    // Codes are written to disk: never change or reuse one
+    ALLOWED(1),
+    MANUAL_PROCESSING(2),
+    PROHIBITED(3);
+
+    private final int code;
+
+    Result(int code) {
+        this.code = code;
+    }
+
+    /**
+     * A stable number for the result, independent of the declaration order. Never 0.
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * Reverses {@link #code()}.
+     *
+     * @throws IllegalArgumentException for a code no result has
+     */
+    public static Result ofCode(int code) {
+        return switch (code) {
+            case 1 -> ALLOWED;
+            case 2 -> MANUAL_PROCESSING;
+            case 3 -> PROHIBITED;
+            default -> throw new IllegalArgumentException("Unknown result code " + code);
+        };
+    }
+
+    /**
+     * Looks up a result by its name. Unlike {@code valueOf} it returns {@code null} for unknown
+     * names instead of throwing.
+     */
+    public static Result parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        return switch (name) {
+            case "ALLOWED" -> ALLOWED;
+            case "MANUAL_PROCESSING" -> MANUAL_PROCESSING;
+            case "PROHIBITED" -> PROHIBITED;
+            default -> null;
+        };
+    }
+}
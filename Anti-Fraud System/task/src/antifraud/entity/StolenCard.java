@@ -3,13 +3,16 @@ package antifraud.entity;
 import jakarta.persistence.*;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_stolen_card_number", columnList = "number", unique = true)
+})
 public class StolenCard {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
 
-    @Column(unique = true, nullable = false)
+    @Column(nullable = false)
     private String number;
 
     public Long getId() {
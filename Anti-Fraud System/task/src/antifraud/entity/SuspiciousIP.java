@@ -3,12 +3,15 @@ package antifraud.entity;
 import jakarta.persistence.*;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_suspicious_ip_ip", columnList = "ip", unique = true)
+})
 public class SuspiciousIP {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(unique = true, nullable = false)
+    @Column(nullable = false)
     private String ip;
 
     public SuspiciousIP(String ip) {
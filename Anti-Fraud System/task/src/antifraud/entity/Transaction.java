@@ -1,25 +1,45 @@
 package antifraud.entity;
 
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 
 import java.time.LocalDateTime;
 
 
+// The correlation rules look up a card's transactions by date; region and ip are
+// included so that lookup is answered from the index alone
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_transaction_number_date", columnList = "number, date, region, ip"),
+        @Index(name = "idx_transaction_journal_sequence", columnList = "journalSequence")
+})
 public class Transaction {
+    public static final String ID_SEQUENCE = "transaction_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // A pooled sequence lets Hibernate assign ids without a round-trip, so inserts can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
     private Long amount;
     private String ip;
     private String number;
     private String region;
     private LocalDateTime date;
-    private String feedback;
-    private String result;
+    @Enumerated(EnumType.STRING)
+    private Result feedback;
+    @Enumerated(EnumType.STRING)
+    private Result result;
+    // The write-behind journal record the row was saved from, null when it was saved directly
+    private Long journalSequence;
 
     public Transaction(long amount, String ip, String number, String region, LocalDateTime date, String result, String info) {
     }
@@ -30,11 +50,11 @@ public class Transaction {
 
     // Getters and Setters
 
-    public String getResult() {
+    public Result getResult() {
         return result;
     }
 
-    public void setResult(String result) {
+    public void setResult(Result result) {
         this.result = result;
     }
 
@@ -46,11 +66,11 @@ public class Transaction {
         this.id = id;
     }
 
-    public String getFeedback() {
+    public Result getFeedback() {
         return feedback;
     }
 
-    public void setFeedback(String feedback) {
+    public void setFeedback(Result feedback) {
         this.feedback = feedback;
     }
 
@@ -94,5 +114,13 @@ public class Transaction {
         this.date = date;
     }
 
+    public Long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public void setJournalSequence(Long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
 
 }
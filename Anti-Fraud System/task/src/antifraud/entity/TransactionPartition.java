@@ -0,0 +1,122 @@
+package antifraud.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+
+import java.time.LocalDateTime;
+
+/**
+ * Catalog entry of an archived partition: a range of transaction ids moved out of the transaction
+ * table into a columnar file. Entries stay after the file is dropped, so their rows are still
+ * accounted for in the card statistics.
+ */
+@Entity
+public class TransactionPartition {
+
+    public enum State {
+        /** The file is written; its rows are still being deleted from the transaction table. */
+        ARCHIVING,
+        /** The rows are only in the file. */
+        ACTIVE,
+        /** Past retention and no longer read; the file is deleted on the next run. */
+        DROPPED,
+        /** The file is gone. */
+        DELETED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String fileName;
+    private long firstId;
+    private long lastId;
+    private LocalDateTime firstDate;
+    private LocalDateTime lastDate;
+    private long rowCount;
+    private long feedbackCount;
+    @Enumerated(EnumType.STRING)
+    private State state;
+    // Whether the rows are counted in the card statistics; false for partitions dropped before a rebuild
+    private boolean inStatistics = true;
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getFirstId() {
+        return firstId;
+    }
+
+    public void setFirstId(long firstId) {
+        this.firstId = firstId;
+    }
+
+    public long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(long lastId) {
+        this.lastId = lastId;
+    }
+
+    public LocalDateTime getFirstDate() {
+        return firstDate;
+    }
+
+    public void setFirstDate(LocalDateTime firstDate) {
+        this.firstDate = firstDate;
+    }
+
+    public LocalDateTime getLastDate() {
+        return lastDate;
+    }
+
+    public void setLastDate(LocalDateTime lastDate) {
+        this.lastDate = lastDate;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public long getFeedbackCount() {
+        return feedbackCount;
+    }
+
+    public void setFeedbackCount(long feedbackCount) {
+        this.feedbackCount = feedbackCount;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public boolean isInStatistics() {
+        return inStatistics;
+    }
+
+    public void setInStatistics(boolean inStatistics) {
+        this.inStatistics = inStatistics;
+    }
+}
@@ -0,0 +1,431 @@
+package antifraud.persistence;
+
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.stream.IntStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Columnar file of one archived partition. Rows are sorted by card number, then id, and stored in
+ * row groups; each column of a group is deflated on its own. Strings are dictionary-encoded per group
+ * and numbers are varint-encoded, ids and dates as deltas. The footer lists each group's offset and
+ * first and last card number, so a card's rows are read from the one or two groups that hold them.
+ * <p>
+ * Layout: {@code group*, footer, int footerLength, long MAGIC}.
+ */
+final class ArchiveFile {
+
+    private static final long MAGIC = 0x4146_5458_4152_4331L; // "AFTXARC1"
+    private static final int COLUMNS = 9;
+
+    private final Path path;
+    private final List<Group> groups;
+
+    private record Group(long offset, int rows, String firstNumber, String lastNumber) {
+    }
+
+    private ArchiveFile(Path path, List<Group> groups) {
+        this.path = path;
+        this.groups = groups;
+    }
+
+    /**
+     * Writes the rows, which must be sorted by number and then id, to a temporary file that is synced
+     * and then moved into place.
+     */
+    static void write(Path path, List<Transaction> rows, int groupSize) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        List<Group> groups = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = 0;
+            for (int from = 0; from < rows.size(); from += groupSize) {
+                List<Transaction> group = rows.subList(from, Math.min(rows.size(), from + groupSize));
+                byte[] bytes = encodeGroup(group);
+                writeFully(channel, bytes);
+                groups.add(new Group(offset, group.size(), group.get(0).getNumber(), group.get(group.size() - 1).getNumber()));
+                offset += bytes.length;
+            }
+            ByteArrayOutputStream footer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(footer);
+            out.writeInt(groups.size());
+            for (Group group : groups) {
+                out.writeLong(group.offset());
+                out.writeInt(group.rows());
+                out.writeUTF(group.firstNumber());
+                out.writeUTF(group.lastNumber());
+            }
+            out.writeInt(footer.size());
+            out.writeLong(MAGIC);
+            writeFully(channel, footer.toByteArray());
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    // The rename must be on disk before the caller deletes the rows from the table
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory; its renames are not made durable this way
+        }
+    }
+
+    static ArchiveFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer tail = readAt(channel, size - 12, 12);
+            int footerLength = tail.getInt();
+            if (tail.getLong() != MAGIC) {
+                throw new IOException("Not a transaction archive: " + path);
+            }
+            ByteBuffer footer = readAt(channel, size - 12 - footerLength, footerLength);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer.array()));
+            int count = in.readInt();
+            List<Group> groups = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                groups.add(new Group(in.readLong(), in.readInt(), in.readUTF(), in.readUTF()));
+            }
+            return new ArchiveFile(path, groups);
+        }
+    }
+
+    /**
+     * Passes every row to the action in file order: by card number, then id.
+     */
+    void forEach(Consumer<Transaction> action) throws IOException {
+        forEachGroup(groups, columns -> columns.forEach(action));
+    }
+
+    /**
+     * The rows in id order, of one card or of all cards. The groups are decoded up front, as their ids
+     * interleave, but each row only becomes a transaction when the iterator reaches it.
+     *
+     * @param number the card number, or {@code null} for all cards
+     */
+    Iterator<Transaction> iterator(String number) throws IOException {
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(Comparator.comparingLong(Cursor::id));
+        forEachGroup(number == null ? groups : groupsOf(number), columns -> {
+            Cursor cursor = new Cursor(columns, columns.idOrder(number));
+            if (cursor.hasRow()) {
+                cursors.add(cursor);
+            }
+        });
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !cursors.isEmpty();
+            }
+
+            @Override
+            public Transaction next() {
+                Cursor cursor = cursors.remove();
+                Transaction row = cursor.columns.row(cursor.order[cursor.next++]);
+                if (cursor.hasRow()) {
+                    cursors.add(cursor);
+                }
+                return row;
+            }
+        };
+    }
+
+    private static final class Cursor {
+        final Columns columns;
+        final int[] order;
+        int next;
+
+        Cursor(Columns columns, int[] order) {
+            this.columns = columns;
+            this.order = order;
+        }
+
+        boolean hasRow() {
+            return next < order.length;
+        }
+
+        long id() {
+            return columns.ids[order[next]];
+        }
+    }
+
+    boolean containsCard(String number) throws IOException {
+        boolean[] found = new boolean[1];
+        forEachGroup(groupsOf(number), columns -> found[0] |= Arrays.asList(columns.numbers).contains(number));
+        return found[0];
+    }
+
+    /**
+     * All rows in id order. Decodes the whole file, so partitions are kept to a bounded number of rows.
+     */
+
+    private List<Group> groupsOf(String number) {
+        return groups.stream()
+                .filter(group -> group.firstNumber().compareTo(number) <= 0 && group.lastNumber().compareTo(number) >= 0)
+                .toList();
+    }
+
+    private interface GroupAction {
+        void accept(Columns columns) throws IOException;
+    }
+
+    private void forEachGroup(List<Group> selected, GroupAction action) throws IOException {
+        if (selected.isEmpty()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (Group group : selected) {
+                action.accept(decodeGroup(channel, group));
+            }
+        }
+    }
+
+    // Columns: id, amount, epoch second, nano, number, ip, region, result, feedback
+    private static byte[] encodeGroup(List<Transaction> rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeColumn(out, column -> writeDeltas(column, rows, row -> row.getId()));
+        writeColumn(out, column -> rows.forEach(row -> writeVarLong(column, row.getAmount())));
+        writeColumn(out, column -> writeDeltas(column, rows, row -> row.getDate().toEpochSecond(ZoneOffset.UTC)));
+        writeColumn(out, column -> rows.forEach(row -> writeVarLong(column, row.getDate().getNano())));
+        writeColumn(out, column -> writeStrings(column, rows, Transaction::getNumber));
+        writeColumn(out, column -> writeStrings(column, rows, Transaction::getIp));
+        writeColumn(out, column -> writeStrings(column, rows, Transaction::getRegion));
+        writeColumn(out, column -> writeStrings(column, rows, row -> name(row.getResult())));
+        writeColumn(out, column -> writeStrings(column, rows, row -> name(row.getFeedback())));
+        return bytes.toByteArray();
+    }
+
+    private interface ColumnWriter {
+        void write(DataOutputStream column) throws IOException;
+    }
+
+    private static void writeColumn(DataOutputStream out, ColumnWriter writer) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DataOutputStream column = new DataOutputStream(new DeflaterOutputStream(compressed))) {
+            writer.write(column);
+        }
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+    }
+
+    private interface LongValue {
+        long of(Transaction row);
+    }
+
+    private static void writeDeltas(DataOutputStream column, List<Transaction> rows, LongValue value) {
+        long previous = 0;
+        for (Transaction row : rows) {
+            long current = value.of(row);
+            long delta = current - previous;
+            writeVarLong(column, delta << 1 ^ delta >> 63);
+            previous = current;
+        }
+    }
+
+    private interface StringValue {
+        String of(Transaction row);
+    }
+
+    private static String name(Result result) {
+        return result == null ? null : result.name();
+    }
+
+    // Dictionary of the distinct values, then one code per row; code 0 is null
+    private static void writeStrings(DataOutputStream column, List<Transaction> rows, StringValue value) throws IOException {
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] rowCodes = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            String string = value.of(rows.get(i));
+            if (string != null) {
+                rowCodes[i] = codes.computeIfAbsent(string, key -> {
+                    dictionary.add(key);
+                    return dictionary.size();
+                });
+            }
+        }
+        writeVarLong(column, dictionary.size());
+        for (String string : dictionary) {
+            column.writeUTF(string);
+        }
+        for (int code : rowCodes) {
+            writeVarLong(column, code);
+        }
+    }
+
+    private static Columns decodeGroup(FileChannel channel, Group group) throws IOException {
+        int rows = group.rows();
+        Columns columns = new Columns(rows);
+        long position = group.offset();
+        for (int c = 0; c < COLUMNS; c++) {
+            int length = readAt(channel, position, 4).getInt();
+            ByteBuffer buffer = readAt(channel, position + 4, length);
+            position += 4 + length;
+            try (DataInputStream column = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(buffer.array())))) {
+                switch (c) {
+                    case 0 -> readDeltas(column, columns.ids);
+                    case 1 -> readValues(column, columns.amounts);
+                    case 2 -> readDeltas(column, columns.seconds);
+                    case 3 -> readValues(column, columns.nanos);
+                    case 4 -> readStrings(column, columns.numbers);
+                    case 5 -> readStrings(column, columns.ips);
+                    case 6 -> readStrings(column, columns.regions);
+                    case 7 -> readStrings(column, columns.results);
+                    default -> readStrings(column, columns.feedback);
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static void readValues(DataInputStream column, long[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readVarLong(column);
+        }
+    }
+
+    private static void readDeltas(DataInputStream column, long[] values) throws IOException {
+        long previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            long zigzag = readVarLong(column);
+            previous += zigzag >>> 1 ^ -(zigzag & 1);
+            values[i] = previous;
+        }
+    }
+
+    private static void readStrings(DataInputStream column, String[] values) throws IOException {
+        String[] dictionary = new String[(int) readVarLong(column) + 1];
+        for (int i = 1; i < dictionary.length; i++) {
+            dictionary[i] = column.readUTF();
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = dictionary[(int) readVarLong(column)];
+        }
+    }
+
+    private static final class Columns {
+        final long[] ids;
+        final long[] amounts;
+        final long[] seconds;
+        final long[] nanos;
+        final String[] numbers;
+        final String[] ips;
+        final String[] regions;
+        final String[] results;
+        final String[] feedback;
+
+        Columns(int rows) {
+            ids = new long[rows];
+            amounts = new long[rows];
+            seconds = new long[rows];
+            nanos = new long[rows];
+            numbers = new String[rows];
+            ips = new String[rows];
+            regions = new String[rows];
+            results = new String[rows];
+            feedback = new String[rows];
+        }
+
+        void forEach(Consumer<Transaction> action) {
+            for (int i = 0; i < ids.length; i++) {
+                action.accept(row(i));
+            }
+        }
+
+        Transaction row(int i) {
+            Transaction row = new Transaction();
+            row.setId(ids[i]);
+            row.setAmount(amounts[i]);
+            row.setDate(LocalDateTime.ofEpochSecond(seconds[i], (int) nanos[i], ZoneOffset.UTC));
+            row.setNumber(numbers[i]);
+            row.setIp(ips[i]);
+            row.setRegion(regions[i]);
+            row.setResult(Result.parse(results[i]));
+            row.setFeedback(Result.parse(feedback[i]));
+            return row;
+        }
+
+        // Positions of the card's rows, or of all rows, by id; the group itself is sorted by number first
+        int[] idOrder(String number) {
+            return IntStream.range(0, ids.length)
+                    .filter(i -> number == null || numbers[i].equals(number))
+                    .boxed()
+                    .sorted(Comparator.comparingLong(i -> ids[i]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) {
+        try {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Truncated archive column");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated archive file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package antifraud.persistence;
+
+import antifraud.entity.CardStatistics;
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+import antifraud.entity.TransactionPartition;
+import antifraud.repository.CardStatisticsRepository;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the {@link CardStatistics} table in line with the transaction table. Saved transactions and
+ * feedback are added once they have committed, each card in its own short transaction under a lock
+ * for the card, so concurrent updates of a card are never lost.
+ * <p>
+ * If the totals do not add up to the transaction table and the archived partitions on startup (a new
+ * table, or a crash between a commit and its statistics) the table is cleared and rebuilt from the rows
+ * present at that point by the cache warm-up; transactions saved meanwhile are added as usual and merged
+ * with the rebuilt rows. Feedback on a row the rebuild has not reached yet is held back until it does,
+ * and only added if the row it read did not have it already. Partitions dropped by then are left out of
+ * the rebuilt totals.
+ */
+@Component
+public class CardStatisticsWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(CardStatisticsWriter.class);
+    private static final int STRIPES = 64;
+
+    private final CardStatisticsRepository cardStatisticsRepository;
+    private final TransactionRepository transactionRepository;
+    private final TransactionHistoryReader transactionHistoryReader;
+    private final TransactionArchive transactionArchive;
+    private final TransactionTemplate transactionTemplate;
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    // Rebuild state: the partitions and the table rows up to rebuildUpToId are missing from the statistics.
+    // A failed rebuild resumes after the last finished partition and, within the next source, card.
+    private volatile boolean rebuilding;
+    private long rebuildUpToId;
+    private List<TransactionPartition> rebuildPartitions = List.of();
+    private int rebuiltPartitions;
+    // Written under the card's lock; readingTable is set once the partitions are done
+    private volatile String rebuiltThrough = "";
+    private volatile boolean readingTable;
+    // Feedback on table rows the rebuild is still to read, by transaction id
+    private final Map<Long, Change> heldFeedback = new ConcurrentHashMap<>();
+
+    private final Object pendingKey = new Object();
+
+    // A saved transaction, or feedback given on one
+    private record Change(String number, Transaction transaction, Result feedback) {
+
+        boolean isFeedback() {
+            return feedback != null;
+        }
+    }
+
+    @Autowired
+    public CardStatisticsWriter(CardStatisticsRepository cardStatisticsRepository,
+                                TransactionRepository transactionRepository,
+                                TransactionHistoryReader transactionHistoryReader,
+                                TransactionArchive transactionArchive,
+                                PlatformTransactionManager transactionManager) {
+        this.cardStatisticsRepository = cardStatisticsRepository;
+        this.transactionRepository = transactionRepository;
+        this.transactionHistoryReader = transactionHistoryReader;
+        this.transactionArchive = transactionArchive;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Called after the caller's commit, so never join its transaction
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    // Runs before any transaction can be saved: the journal replay depends on this bean
+    @PostConstruct
+    void checkTotals() {
+        TransactionArchive.Counts archived = transactionArchive.countedInStatistics();
+        long transactions = transactionRepository.count() + archived.rows();
+        long feedback = transactionRepository.countByFeedbackIsNotNull() + archived.feedback();
+        if (cardStatisticsRepository.sumTransactions() == transactions && cardStatisticsRepository.sumFeedback() == feedback) {
+            return;
+        }
+        log.info("Card statistics do not match the {} saved transactions, rebuilding them", transactions);
+        cardStatisticsRepository.deleteAllInBatch();
+        transactionArchive.excludeDroppedFromStatistics();
+        Long maxId = transactionRepository.findMaxId();
+        rebuildUpToId = maxId != null ? maxId : 0;
+        rebuildPartitions = transactionArchive.readablePartitions();
+        rebuilding = true;
+    }
+
+    public void record(Transaction transaction) {
+        afterCommit(pending -> pending.add(new Change(transaction.getNumber(), transaction, null)));
+    }
+
+    public void recordAll(List<Transaction> transactions) {
+        afterCommit(pending -> transactions.forEach(transaction ->
+                pending.add(new Change(transaction.getNumber(), transaction, null))));
+    }
+
+    public void recordFeedback(Transaction transaction) {
+        afterCommit(pending -> pending.add(new Change(transaction.getNumber(), transaction, transaction.getFeedback())));
+    }
+
+    /**
+     * Adds the archived partitions and the transactions that were in the table at startup if the
+     * statistics are being rebuilt.
+     */
+    public void rebuild(AtomicLong loaded) {
+        if (!rebuilding) {
+            return;
+        }
+        while (rebuiltPartitions < rebuildPartitions.size()) {
+            TransactionPartition partition = rebuildPartitions.get(rebuiltPartitions);
+            fold(action -> transactionArchive.forEachByNumber(partition, rebuiltThrough, action), loaded);
+            rebuiltPartitions++;
+            rebuiltThrough = "";
+        }
+        readingTable = true;
+        fold(action -> transactionHistoryReader.forEachByNumber(rebuildUpToId, rebuiltThrough, action), loaded);
+        rebuilding = false;
+        // Only feedback on rows that were deleted before the rebuild read them is left
+        List<Change> left = new ArrayList<>(heldFeedback.values());
+        heldFeedback.clear();
+        applySafely(left);
+    }
+
+    /**
+     * Whether the totals are incomplete because the rebuild has not finished yet.
+     */
+    public boolean isRebuilding() {
+        return rebuilding;
+    }
+
+    // The source passes transactions sorted by card number; each card is applied once all its rows are read
+    private void fold(Consumer<Consumer<Transaction>> source, AtomicLong loaded) {
+        List<Change> card = new ArrayList<>();
+        source.accept(transaction -> {
+            if (!card.isEmpty() && !card.get(0).number().equals(transaction.getNumber())) {
+                apply(card, true);
+                loaded.incrementAndGet();
+                card.clear();
+            }
+            card.add(new Change(transaction.getNumber(), transaction, null));
+        });
+        if (!card.isEmpty()) {
+            apply(card, true);
+            loaded.incrementAndGet();
+        }
+    }
+
+    // Without a surrounding transaction the rows are committed already; otherwise wait for its commit
+    @SuppressWarnings("unchecked")
+    private void afterCommit(Consumer<List<Change>> collect) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            List<Change> changes = new ArrayList<>();
+            collect.accept(changes);
+            applySafely(changes);
+            return;
+        }
+        List<Change> pending = (List<Change>) TransactionSynchronizationManager.getResource(pendingKey);
+        if (pending == null) {
+            List<Change> changes = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(pendingKey, changes);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applySafely(changes);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(pendingKey);
+                }
+            });
+            pending = changes;
+        }
+        collect.accept(pending);
+    }
+
+    // The transactions are saved already; missing statistics are rebuilt on the next start
+    private void applySafely(List<Change> changes) {
+        Map<String, List<Change>> byCard = new LinkedHashMap<>();
+        for (Change change : changes) {
+            byCard.computeIfAbsent(change.number(), number -> new ArrayList<>()).add(change);
+        }
+        for (List<Change> card : byCard.values()) {
+            try {
+                apply(card, false);
+            } catch (RuntimeException e) {
+                log.error("Cannot update the statistics of a card, they are rebuilt on the next start", e);
+            }
+        }
+    }
+
+    /**
+     * @param rebuilt whether the changes are the rows the rebuild read for the card
+     */
+    private void apply(List<Change> card, boolean rebuilt) {
+        String number = card.get(0).number();
+        ReentrantLock lock = locks[Math.floorMod(number.hashCode(), STRIPES)];
+        lock.lock();
+        try {
+            List<Change> changes = rebuilt ? withHeldFeedback(card) : holdBackFeedback(card);
+            if (!changes.isEmpty()) {
+                transactionTemplate.executeWithoutResult(status -> {
+                    CardStatistics statistics = cardStatisticsRepository.findById(number)
+                            .orElseGet(() -> new CardStatistics(number));
+                    for (Change change : changes) {
+                        if (change.isFeedback()) {
+                            statistics.addFeedback(change.feedback());
+                        } else {
+                            statistics.add(change.transaction());
+                        }
+                    }
+                    cardStatisticsRepository.save(statistics);
+                });
+            }
+            if (rebuilt) {
+                card.forEach(change -> heldFeedback.remove(change.transaction().getId()));
+                rebuiltThrough = number;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The rebuild will read the row, with or without this feedback depending on when it gets there
+    private List<Change> holdBackFeedback(List<Change> card) {
+        if (!rebuilding || readingTable && card.get(0).number().compareTo(rebuiltThrough) <= 0) {
+            return card;
+        }
+        List<Change> changes = new ArrayList<>(card.size());
+        for (Change change : card) {
+            if (change.isFeedback() && change.transaction().getId() <= rebuildUpToId) {
+                heldFeedback.put(change.transaction().getId(), change);
+            } else {
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    private List<Change> withHeldFeedback(List<Change> card) {
+        if (heldFeedback.isEmpty()) {
+            return card;
+        }
+        List<Change> changes = new ArrayList<>(card);
+        for (Change change : card) {
+            Change held = heldFeedback.get(change.transaction().getId());
+            if (held != null && change.transaction().getFeedback() == null) {
+                changes.add(held);
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,207 @@
+package antifraud.persistence;
+
+import antifraud.cache.PackedTransaction;
+import antifraud.entity.Region;
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+import antifraud.validation.Validators;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+
+/**
+ * One file of the {@link MappedTransactionLog}: a fixed number of fixed-width records, mapped into memory
+ * as a whole. A record is
+ * <pre>
+ *  0 long  card number digits, unsigned
+ *  8 long  date in microseconds since the epoch (UTC), the precision of the table's timestamp column
+ * 16 long  amount
+ * 24 int   IPv4 address, the low half of {@link PackedTransaction#packIp}
+ * 28 byte  digits of each IP octet minus one, two bits per octet: the high half
+ * 29 byte  region, {@link Region#code()}
+ * 30 byte  result, {@link Result#code()}
+ * 31 byte  feedback code, 0 for none
+ * 32 byte  length of the card number, written last: 0 marks a free record
+ * 33 byte  1 if the next record belongs to the same batch
+ * </pre>
+ * A batch is complete once its last record, the one without the flag, is written.
+ */
+final class LogSegment implements AutoCloseable {
+
+    static final int RECORD_SIZE = 36;
+
+    private static final int NUMBER = 0;
+    private static final int DATE = 8;
+    private static final int AMOUNT = 16;
+    private static final int IP = 24;
+    private static final int IP_DIGITS = 28;
+    private static final int REGION = 29;
+    private static final int RESULT = 30;
+    private static final int FEEDBACK = 31;
+    private static final int NUMBER_LENGTH = 32;
+    private static final int CONTINUED = 33;
+
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private LogSegment(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps the file, creating it or growing it to {@code capacity} records as needed.
+     */
+    static LogSegment open(Path path, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+            return new LogSegment(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    boolean isWritten(int slot) {
+        return buffer.get(offset(slot) + NUMBER_LENGTH) != 0;
+    }
+
+    /**
+     * Checks that the transaction can be stored, so nothing is written for one that cannot.
+     */
+    static void checkEncodable(Transaction transaction) {
+        String number = transaction.getNumber();
+        if (number == null || number.isEmpty() || number.length() > 19) {
+            throw new IllegalArgumentException("Card number cannot be stored in the transaction log");
+        }
+        for (int i = 0; i < number.length(); i++) {
+            if (number.charAt(i) < '0' || number.charAt(i) > '9') {
+                throw new IllegalArgumentException("Card number cannot be stored in the transaction log");
+            }
+        }
+        if (PackedTransaction.packIp(transaction.getIp()) == PackedTransaction.INVALID) {
+            throw new IllegalArgumentException("IP cannot be stored in the transaction log");
+        }
+        if (Region.parse(transaction.getRegion()) == null || transaction.getResult() == null
+                || transaction.getAmount() == null) {
+            throw new IllegalArgumentException("Transaction cannot be stored in the transaction log");
+        }
+        epochMicros(transaction.getDate());
+    }
+
+    /**
+     * Writes a transaction that passed {@link #checkEncodable}.
+     *
+     * @param continued whether the next record belongs to the same batch
+     */
+    void write(int slot, Transaction transaction, boolean continued) {
+        int offset = offset(slot);
+        String number = transaction.getNumber();
+        buffer.putLong(offset + NUMBER, Long.parseUnsignedLong(number));
+        buffer.putLong(offset + DATE, epochMicros(transaction.getDate()));
+        buffer.putLong(offset + AMOUNT, transaction.getAmount());
+        long ip = PackedTransaction.packIp(transaction.getIp());
+        buffer.putInt(offset + IP, (int) ip);
+        buffer.put(offset + IP_DIGITS, (byte) (ip >>> 32));
+        buffer.put(offset + REGION, (byte) Region.parse(transaction.getRegion()).code());
+        buffer.put(offset + RESULT, (byte) outcomeCode(transaction.getResult()));
+        buffer.put(offset + FEEDBACK, (byte) outcomeCode(transaction.getFeedback()));
+        buffer.put(offset + CONTINUED, (byte) (continued ? 1 : 0));
+        buffer.put(offset + NUMBER_LENGTH, (byte) number.length());
+    }
+
+    boolean isContinued(int slot) {
+        return buffer.get(offset(slot) + CONTINUED) != 0;
+    }
+
+    // Frees a record of a batch that was cut off
+    void clear(int slot) {
+        buffer.put(offset(slot) + NUMBER_LENGTH, (byte) 0);
+    }
+
+    void writeFeedback(int slot, Result feedback) {
+        buffer.put(offset(slot) + FEEDBACK, (byte) outcomeCode(feedback));
+    }
+
+    Transaction read(int slot, long id) {
+        int offset = offset(slot);
+        Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setNumber(numberAt(offset));
+        transaction.setDate(PackedTransaction.toDate(buffer.getLong(offset + DATE)));
+        transaction.setAmount(buffer.getLong(offset + AMOUNT));
+        transaction.setIp(ipAt(offset));
+        transaction.setRegion(Region.ofCode(buffer.get(offset + REGION)).name());
+        transaction.setResult(outcome(buffer.get(offset + RESULT)));
+        transaction.setFeedback(outcome(buffer.get(offset + FEEDBACK)));
+        return transaction;
+    }
+
+    String number(int slot) {
+        return numberAt(offset(slot));
+    }
+
+    long dateMicros(int slot) {
+        return buffer.getLong(offset(slot) + DATE);
+    }
+
+    boolean hasFeedback(int slot) {
+        return buffer.get(offset(slot) + FEEDBACK) != 0;
+    }
+
+    String region(int slot) {
+        return Region.ofCode(buffer.get(offset(slot) + REGION)).name();
+    }
+
+    String ip(int slot) {
+        return ipAt(offset(slot));
+    }
+
+    void force(int fromSlot, int toSlot) {
+        buffer.force(offset(fromSlot), (toSlot - fromSlot) * RECORD_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    static long epochMicros(LocalDateTime date) {
+        if (!Validators.isValidDate(date)) {
+            throw new IllegalArgumentException("Date cannot be stored in the transaction log");
+        }
+        return PackedTransaction.epochMicros(date);
+    }
+
+    private static int offset(int slot) {
+        return slot * RECORD_SIZE;
+    }
+
+    private String numberAt(int offset) {
+        String digits = Long.toUnsignedString(buffer.getLong(offset + NUMBER));
+        int length = buffer.get(offset + NUMBER_LENGTH);
+        return digits.length() == length ? digits : "0".repeat(length - digits.length()) + digits;
+    }
+
+    private String ipAt(int offset) {
+        return PackedTransaction.unpackIp((buffer.get(offset + IP_DIGITS) & 0xFFL) << 32
+                | buffer.getInt(offset + IP) & 0xFFFFFFFFL);
+    }
+
+    // Result codes, with 0 for no feedback
+    private static int outcomeCode(Result outcome) {
+        return outcome == null ? 0 : outcome.code();
+    }
+
+    private static Result outcome(int code) {
+        return code == 0 ? null : Result.ofCode(code);
+    }
+}
@@ -0,0 +1,417 @@
+package antifraud.persistence;
+
+import antifraud.cache.PackedTransaction;
+import antifraud.entity.Transaction;
+import antifraud.repository.RegionAndIp;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import antifraud.response.TransactionResponse;
+import antifraud.validation.Validators;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Transaction storage for the {@code mapped-log} profile: an append-only log of fixed-width records in
+ * memory-mapped {@link LogSegment} files instead of the transaction table. A transaction's id is its
+ * position in the log plus one. The only change made in place is feedback.
+ * <p>
+ * A card's transactions are found through an in-memory index of their positions, rebuilt by reading
+ * the whole log on startup. Writes reach the files through the page cache, so they survive a crash of the
+ * process; {@code antifraud.mapped-log.force} also syncs them to disk before {@code save} returns.
+ * Saves are not part of the surrounding database transaction and are not rolled back with it, but the
+ * transactions of one {@code saveAll} are stored all or none: every one is checked and the segments they
+ * need are mapped before the first is written, and a batch cut off by a crash is discarded on startup.
+ */
+@Repository
+@Profile("mapped-log")
+public class MappedTransactionLog implements TransactionRepository, TransactionHistoryReader {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedTransactionLog.class);
+    private static final int MAX_SEGMENT_RECORDS = Integer.MAX_VALUE / LogSegment.RECORD_SIZE;
+
+    private final Path directory;
+    private final boolean force;
+    private int segmentRecords;
+
+    private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, Positions> cards = new ConcurrentHashMap<>();
+    // Not synchronized: with force, appends sync to disk, and a virtual thread blocked in a monitor would pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // Records below count are complete; writing it publishes them to readers, which take no lock
+    private volatile int count;
+    private volatile long feedbackCount;
+    private volatile int newest = -1;
+
+    private record RegionIp(String region, String ip) implements RegionAndIp {
+        @Override
+        public String getRegion() {
+            return region;
+        }
+
+        @Override
+        public String getIp() {
+            return ip;
+        }
+    }
+
+    // A card's positions in ascending order. Appended under the log's lock; readers see a prefix.
+    private static final class Positions {
+        private volatile int[] positions = new int[2];
+        private volatile int size;
+
+        void add(int position) {
+            int[] current = positions;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = position;
+            positions = current;
+            size = size + 1;
+        }
+
+        int[] snapshot() {
+            int n = size;
+            return Arrays.copyOf(positions, n);
+        }
+    }
+
+    @Autowired
+    public MappedTransactionLog(@Value("${antifraud.mapped-log.dir:../transaction-log}") String directory,
+                                @Value("${antifraud.mapped-log.segment-records:1048576}") int segmentRecords,
+                                @Value("${antifraud.mapped-log.force:false}") boolean force) {
+        if (segmentRecords < 1 || segmentRecords > MAX_SEGMENT_RECORDS) {
+            throw new IllegalArgumentException("antifraud.mapped-log.segment-records must be between 1 and " + MAX_SEGMENT_RECORDS);
+        }
+        this.directory = Path.of(directory);
+        this.segmentRecords = segmentRecords;
+        this.force = force;
+    }
+
+    @PostConstruct
+    void open() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        // Existing segments keep the size they were created with
+        Path first = segmentPath(0);
+        if (Files.exists(first) && Files.size(first) >= LogSegment.RECORD_SIZE) {
+            segmentRecords = (int) (Files.size(first) / LogSegment.RECORD_SIZE);
+        }
+        int written = 0;
+        int complete = 0;
+        for (int index = 0; Files.exists(segmentPath(index)); index++) {
+            LogSegment segment = LogSegment.open(segmentPath(index), segmentRecords);
+            segments.add(segment);
+            int slot = 0;
+            while (slot < segmentRecords && segment.isWritten(slot)) {
+                written++;
+                if (!segment.isContinued(slot)) {
+                    complete = written;
+                }
+                slot++;
+            }
+            if (slot < segmentRecords) {
+                break;
+            }
+        }
+        if (complete < written) {
+            for (int position = complete; position < written; position++) {
+                segment(position).clear(slot(position));
+            }
+            log.warn("Discarded {} transactions of a batch that was not completely written", written - complete);
+        }
+
+        long feedback = 0;
+        long newestDate = Long.MIN_VALUE;
+        for (int position = 0; position < complete; position++) {
+            LogSegment segment = segment(position);
+            int slot = slot(position);
+            cards.computeIfAbsent(segment.number(slot), key -> new Positions()).add(position);
+            if (segment.hasFeedback(slot)) {
+                feedback++;
+            }
+            if (segment.dateMicros(slot) > newestDate) {
+                newestDate = segment.dateMicros(slot);
+                newest = position;
+            }
+        }
+        count = complete;
+        feedbackCount = feedback;
+        log.info("Opened transaction log {} with {} transactions of {} cards in {} ms", directory, complete,
+                cards.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        lock.lock();
+        try {
+            for (LogSegment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a new transaction and sets its id, or for one that has an id stores its feedback.
+     */
+    @Override
+    public <S extends Transaction> S save(S transaction) {
+        saveAll(List.of(transaction));
+        return transaction;
+    }
+
+    @Override
+    public <S extends Transaction> List<S> saveAll(Iterable<S> transactions) {
+        List<S> saved = new ArrayList<>();
+        int appends = 0;
+        for (S transaction : transactions) {
+            if (transaction.getId() == null) {
+                LogSegment.checkEncodable(transaction);
+                appends++;
+            }
+            saved.add(transaction);
+        }
+        lock.lock();
+        try {
+            int first = count;
+            if (appends > Integer.MAX_VALUE - first) {
+                throw new IllegalStateException("Transaction log is full");
+            }
+            mapSegmentsUpTo(first + appends);
+            for (S transaction : saved) {
+                if (transaction.getId() == null) {
+                    append(transaction, --appends > 0);
+                } else {
+                    updateFeedback(transaction);
+                }
+            }
+            if (force) {
+                forceFrom(first);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return saved;
+    }
+
+    // Stricter than the table: only valid card numbers, IPv4 addresses and dates the log can encode
+    @Override
+    public boolean canStore(String number, String ip, LocalDateTime date) {
+        return Validators.isValidCardNumber(number) && Validators.isValidIPv4(ip) && Validators.isValidDate(date);
+    }
+
+    @Override
+    public Optional<Transaction> findById(Long id) {
+        if (id == null || id < 1 || id > count) {
+            return Optional.empty();
+        }
+        return Optional.of(read((int) (id - 1)));
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public List<RegionAndIp> findRegionsAndIps(String number, LocalDateTime from, LocalDateTime to) {
+        Positions positions = cards.get(number);
+        if (positions == null) {
+            return List.of();
+        }
+        long fromMicros = LogSegment.epochMicros(from);
+        long toMicros = LogSegment.epochMicros(to);
+        Set<RegionAndIp> rows = new LinkedHashSet<>();
+        for (int position : positions.snapshot()) {
+            LogSegment segment = segment(position);
+            int slot = slot(position);
+            long date = segment.dateMicros(slot);
+            if (date > fromMicros && date <= toMicros) {
+                rows.add(new RegionIp(segment.region(slot), segment.ip(slot)));
+            }
+        }
+        return new ArrayList<>(rows);
+    }
+
+    @Override
+    public long countByFeedbackIsNotNull() {
+        return feedbackCount;
+    }
+
+    @Override
+    public Optional<Transaction> findTopByOrderByDateDesc() {
+        int position = newest;
+        return position < 0 ? Optional.empty() : Optional.of(read(position));
+    }
+
+    // Saves are already durable when they return, there is nothing for a write-behind journal to do
+    @Override
+    public Long findMaxJournalSequence() {
+        throw new IllegalStateException("The mapped transaction log cannot be used with antifraud.write-behind.enabled");
+    }
+
+    @Override
+    public Long findMaxId() {
+        int n = count;
+        return n == 0 ? null : (long) n;
+    }
+
+    @Override
+    public void forEach(String number, long afterId, Integer limit, Consumer<TransactionResponse> action) {
+        long written = 0;
+        if (number == null) {
+            int n = count;
+            for (long id = Math.max(afterId, 0) + 1; id <= n && (limit == null || written < limit); id++, written++) {
+                action.accept(new TransactionResponse(read((int) (id - 1))));
+            }
+            return;
+        }
+        Positions positions = cards.get(number);
+        if (positions == null) {
+            return;
+        }
+        int[] snapshot = positions.snapshot();
+        int from = Arrays.binarySearch(snapshot, (int) Math.min(Math.max(afterId, 0), Integer.MAX_VALUE));
+        for (int i = from >= 0 ? from : -from - 1; i < snapshot.length && (limit == null || written < limit); i++, written++) {
+            action.accept(new TransactionResponse(read(snapshot[i])));
+        }
+    }
+
+    @Override
+    public boolean existsByNumber(String number) {
+        return cards.containsKey(number);
+    }
+
+    // The log is in arrival order, which is close to date order: the matching positions are sorted by date
+    @Override
+    public void forEachDatedAfter(LocalDateTime after, Consumer<Transaction> action) {
+        long afterMicros = LogSegment.epochMicros(after);
+        int n = count;
+        List<long[]> matches = new ArrayList<>();
+        for (int position = 0; position < n; position++) {
+            long date = segment(position).dateMicros(slot(position));
+            if (date > afterMicros) {
+                matches.add(new long[]{date, position});
+            }
+        }
+        matches.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (long[] match : matches) {
+            int position = (int) match[1];
+            LogSegment segment = segment(position);
+            int slot = slot(position);
+            Transaction transaction = new Transaction();
+            transaction.setNumber(segment.number(slot));
+            transaction.setDate(PackedTransaction.toDate(match[0]));
+            transaction.setRegion(segment.region(slot));
+            transaction.setIp(segment.ip(slot));
+            action.accept(transaction);
+        }
+    }
+
+    @Override
+    public void forEachByNumber(long upToId, String afterNumber, Consumer<Transaction> action) {
+        List<String> numbers = cards.keySet().stream()
+                .filter(number -> number.compareTo(afterNumber) > 0)
+                .sorted()
+                .toList();
+        for (String number : numbers) {
+            for (int position : cards.get(number).snapshot()) {
+                if (position >= upToId) {
+                    break;
+                }
+                action.accept(read(position));
+            }
+        }
+    }
+
+    private void mapSegmentsUpTo(int positions) {
+        while ((long) segments.size() * segmentRecords < positions) {
+            try {
+                segments.add(LogSegment.open(segmentPath(segments.size()), segmentRecords));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void append(Transaction transaction, boolean continued) {
+        int position = count;
+        LogSegment segment = segment(position);
+        segment.write(slot(position), transaction, continued);
+        transaction.setId((long) position + 1);
+        cards.computeIfAbsent(transaction.getNumber(), key -> new Positions()).add(position);
+        if (transaction.getFeedback() != null) {
+            feedbackCount++;
+        }
+        if (newest < 0 || segment.dateMicros(slot(position)) > segment(newest).dateMicros(slot(newest))) {
+            newest = position;
+        }
+        count = position + 1;
+    }
+
+    private void updateFeedback(Transaction transaction) {
+        long id = transaction.getId();
+        if (id < 1 || id > count) {
+            throw new IllegalArgumentException("Transaction " + id + " is not in the transaction log");
+        }
+        int position = (int) (id - 1);
+        LogSegment segment = segment(position);
+        int slot = slot(position);
+        boolean had = segment.hasFeedback(slot);
+        segment.writeFeedback(slot, transaction.getFeedback());
+        if (had != (transaction.getFeedback() != null)) {
+            feedbackCount += had ? -1 : 1;
+        }
+        if (force) {
+            segment.force(slot, slot + 1);
+        }
+    }
+
+    private void forceFrom(int firstPosition) {
+        for (int position = firstPosition; position < count; ) {
+            int end = Math.min(count, (position / segmentRecords + 1) * segmentRecords);
+            segment(position).force(slot(position), slot(end - 1) + 1);
+            position = end;
+        }
+    }
+
+    private Transaction read(int position) {
+        return segment(position).read(slot(position), (long) position + 1);
+    }
+
+    private LogSegment segment(int position) {
+        return segments.get(position / segmentRecords);
+    }
+
+    private int slot(int position) {
+        return position % segmentRecords;
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("segment-%06d.log", index));
+    }
+}
@@ -0,0 +1,268 @@
+package antifraud.persistence;
+
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+import antifraud.entity.TransactionPartition;
+import antifraud.entity.TransactionPartition.State;
+import antifraud.repository.TransactionPartitionRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Archived partitions of the transaction table. {@link #seal} moves a range of old rows into a
+ * columnar {@link ArchiveFile}: the file is written and synced, the partition is recorded in the
+ * catalog, and the rows are then deleted from the table in short chunks. A row is only deleted while its
+ * feedback is still the one in the file; feedback given in between keeps the row, and the file is written
+ * again with it before the row is deleted. A partition whose deletes were interrupted is finished on the
+ * next start; until then its rows are read from both places and
+ * readers skip the repeated ids. Dropping a partition takes it out of the catalog's readable set and
+ * deletes its file, without touching the table.
+ */
+@Component
+public class TransactionArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionArchive.class);
+    private static final EnumSet<State> READABLE = EnumSet.of(State.ARCHIVING, State.ACTIVE);
+
+    private final TransactionPartitionRepository partitionRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Path directory;
+    private final int rowGroupSize;
+    private final int deleteChunkSize;
+
+    public record Counts(long rows, long feedback) {
+    }
+
+    // Readable partitions by first id; replaced whenever the catalog changes
+    private volatile List<TransactionPartition> readable = List.of();
+
+    @Autowired
+    public TransactionArchive(TransactionPartitionRepository partitionRepository,
+                              DataSource dataSource,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${antifraud.archive.dir:../transaction-archive}") String directory,
+                              @Value("${antifraud.archive.row-group-size:8192}") int rowGroupSize,
+                              @Value("${antifraud.archive.delete-chunk-size:1000}") int deleteChunkSize) {
+        this.partitionRepository = partitionRepository;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.directory = Path.of(directory);
+        this.rowGroupSize = rowGroupSize;
+        this.deleteChunkSize = deleteChunkSize;
+    }
+
+    // Before the card statistics check their totals, so no archived row is also counted in the table
+    @PostConstruct
+    void finishInterruptedPartitions() {
+        for (TransactionPartition partition : partitionRepository.findByStateInOrderByFirstIdAsc(EnumSet.of(State.ARCHIVING))) {
+            List<Transaction> rows = new ArrayList<>();
+            forEach(partition, rows::add);
+            moveOutOfTable(partition, rows);
+            partition.setState(State.ACTIVE);
+            partitionRepository.save(partition);
+            log.info("Finished archiving partition {}", partition.getFileName());
+        }
+        refresh();
+    }
+
+    public List<TransactionPartition> readablePartitions() {
+        return readable;
+    }
+
+    /**
+     * Moves the rows into a new partition.
+     *
+     * @param rows transactions in id order, all still in the transaction table
+     */
+    public TransactionPartition seal(List<Transaction> rows) {
+        TransactionPartition partition = new TransactionPartition();
+        partition.setFirstId(rows.get(0).getId());
+        partition.setLastId(rows.get(rows.size() - 1).getId());
+        partition.setFileName(String.format("transactions-%012d-%012d.afc", partition.getFirstId(), partition.getLastId()));
+        partition.setFirstDate(rows.stream().map(Transaction::getDate).min(Comparator.naturalOrder()).orElseThrow());
+        partition.setLastDate(rows.stream().map(Transaction::getDate).max(Comparator.naturalOrder()).orElseThrow());
+        partition.setRowCount(rows.size());
+        partition.setState(State.ARCHIVING);
+        writeFile(partition, rows);
+        partitionRepository.save(partition);
+        refresh();
+
+        moveOutOfTable(partition, rows);
+        partition.setState(State.ACTIVE);
+        partitionRepository.save(partition);
+        refresh();
+        return partition;
+    }
+
+    /**
+     * Stops reading the partition. Its file is deleted by {@link #deleteDroppedFiles} on a later run, so
+     * reads that already listed it can finish.
+     */
+    public void drop(TransactionPartition partition) {
+        partition.setState(State.DROPPED);
+        partitionRepository.save(partition);
+        refresh();
+    }
+
+    public void deleteDroppedFiles() {
+        for (TransactionPartition partition : partitionRepository.findByStateInOrderByFirstIdAsc(EnumSet.of(State.DROPPED))) {
+            try {
+                Files.deleteIfExists(directory.resolve(partition.getFileName()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            partition.setState(State.DELETED);
+            partitionRepository.save(partition);
+            log.info("Deleted partition {} ({} transactions up to {})", partition.getFileName(),
+                    partition.getRowCount(), partition.getLastDate());
+        }
+    }
+
+    /**
+     * The rows and feedback of all partitions, dropped or not, that are counted in the card statistics.
+     */
+    public Counts countedInStatistics() {
+        long rows = 0;
+        long feedback = 0;
+        for (TransactionPartition partition : partitionRepository.findAll()) {
+            if (partition.isInStatistics()) {
+                rows += partition.getRowCount();
+                feedback += partition.getFeedbackCount();
+            }
+        }
+        return new Counts(rows, feedback);
+    }
+
+    // The statistics are about to be rebuilt from what can still be read
+    public void excludeDroppedFromStatistics() {
+        for (TransactionPartition partition : partitionRepository.findAll()) {
+            if (!READABLE.contains(partition.getState()) && partition.isInStatistics()) {
+                partition.setInStatistics(false);
+                partitionRepository.save(partition);
+            }
+        }
+    }
+
+    /**
+     * Passes the partition's rows to the action by card number, then id, starting after card {@code afterNumber}.
+     */
+    public void forEachByNumber(TransactionPartition partition, String afterNumber, Consumer<Transaction> action) {
+        forEach(partition, row -> {
+            if (row.getNumber().compareTo(afterNumber) > 0) {
+                action.accept(row);
+            }
+        });
+    }
+
+    /**
+     * The partition's rows in id order, read as the iterator advances.
+     *
+     * @param number the card number, or {@code null} for all cards
+     */
+    public Iterator<Transaction> iterator(TransactionPartition partition, String number) {
+        try {
+            return ArchiveFile.open(directory.resolve(partition.getFileName())).iterator(number);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean containsCard(String number) {
+        try {
+            for (TransactionPartition partition : readable) {
+                if (ArchiveFile.open(directory.resolve(partition.getFileName())).containsCard(number)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void forEach(TransactionPartition partition, Consumer<Transaction> action) {
+        try {
+            ArchiveFile.open(directory.resolve(partition.getFileName())).forEach(action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeFile(TransactionPartition partition, List<Transaction> rows) {
+        List<Transaction> byNumber = new ArrayList<>(rows);
+        byNumber.sort(Comparator.comparing(Transaction::getNumber).thenComparingLong(Transaction::getId));
+        partition.setFeedbackCount(rows.stream().filter(row -> row.getFeedback() != null).count());
+        try {
+            Files.createDirectories(directory);
+            ArchiveFile.write(directory.resolve(partition.getFileName()), byNumber, rowGroupSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Rows whose feedback changed since they were read are written to the file again until none is left
+    private void moveOutOfTable(TransactionPartition partition, List<Transaction> rows) {
+        List<Transaction> changed = deleteFromTable(rows);
+        while (!changed.isEmpty()) {
+            log.info("Feedback was given on {} transactions of partition {} while archiving, writing it again",
+                    changed.size(), partition.getFileName());
+            writeFile(partition, rows);
+            partitionRepository.save(partition);
+            changed = deleteFromTable(changed);
+        }
+    }
+
+    /**
+     * Deletes the rows whose feedback is still the given one. Each chunk is its own short transaction, so the
+     * table is never locked for the whole partition.
+     *
+     * @return the rows left in the table, with their feedback updated
+     */
+    private List<Transaction> deleteFromTable(List<Transaction> rows) {
+        List<Transaction> changed = new ArrayList<>();
+        for (int from = 0; from < rows.size(); from += deleteChunkSize) {
+            List<Transaction> chunk = rows.subList(from, Math.min(rows.size(), from + deleteChunkSize));
+            int[][] deleted = transactionTemplate.execute(status ->
+                    jdbcTemplate.batchUpdate("delete from transaction where id = ? and feedback is not distinct from ?",
+                            chunk, chunk.size(), (statement, row) -> {
+                                statement.setLong(1, row.getId());
+                                statement.setString(2, row.getFeedback() == null ? null : row.getFeedback().name());
+                            }));
+            for (int i = 0; i < chunk.size(); i++) {
+                if (deleted[0][i] == 0) {
+                    // Not deleted: the feedback changed, or an interrupted run deleted it already
+                    Transaction row = chunk.get(i);
+                    jdbcTemplate.query("select feedback from transaction where id = ?", result -> {
+                        row.setFeedback(Result.parse(result.getString(1)));
+                        changed.add(row);
+                    }, row.getId());
+                }
+            }
+        }
+        return changed;
+    }
+
+    private void refresh() {
+        readable = List.copyOf(partitionRepository.findByStateInOrderByFirstIdAsc(READABLE));
+    }
+}
@@ -0,0 +1,116 @@
+package antifraud.persistence;
+
+import antifraud.entity.Transaction;
+import antifraud.entity.TransactionPartition;
+import antifraud.repository.JdbcTransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import antifraud.warmup.CacheWarmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Keeps the transaction table to the recent transactions. Rows dated more than {@code antifraud.archive.after}
+ * before the newest transaction are sealed into partitions of at most {@code partition-max-rows}, in id order,
+ * up to the first row that is still recent. Partitions whose newest row is older than
+ * {@code antifraud.archive.retention} are dropped; a zero retention keeps them forever. Dates come from the
+ * clients, so the newest one counts as no later than now: a transaction dated in the future cannot move the
+ * recent rows, which the correlation rules read from the table, into partitions.
+ * <p>
+ * Waits for the cache warm-up, which may be rebuilding the card statistics from the table. Not used with the
+ * {@code mapped-log} profile, which keeps no transaction table.
+ */
+@Component
+@Profile("!mapped-log")
+public class TransactionArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionArchiver.class);
+
+    private final TransactionArchive transactionArchive;
+    private final TransactionRepository transactionRepository;
+    private final JdbcTransactionHistoryReader transactionHistoryReader;
+    private final CacheWarmup cacheWarmup;
+    private final boolean enabled;
+    private final Duration after;
+    private final Duration retention;
+    private final int partitionMaxRows;
+
+    @Autowired
+    public TransactionArchiver(TransactionArchive transactionArchive,
+                               TransactionRepository transactionRepository,
+                               JdbcTransactionHistoryReader transactionHistoryReader,
+                               CacheWarmup cacheWarmup,
+                               @Value("${antifraud.archive.enabled:false}") boolean enabled,
+                               @Value("${antifraud.archive.after:P30D}") Duration after,
+                               @Value("${antifraud.archive.retention:P0D}") Duration retention,
+                               @Value("${antifraud.archive.partition-max-rows:250000}") int partitionMaxRows,
+                               @Value("${antifraud.velocity.retention:PT2H}") Duration velocityRetention) {
+        if (after.compareTo(velocityRetention) < 0) {
+            throw new IllegalArgumentException("Archive age must cover at least the velocity retention " + velocityRetention);
+        }
+        this.transactionArchive = transactionArchive;
+        this.transactionRepository = transactionRepository;
+        this.transactionHistoryReader = transactionHistoryReader;
+        this.cacheWarmup = cacheWarmup;
+        this.enabled = enabled;
+        this.after = after;
+        this.retention = retention;
+        this.partitionMaxRows = partitionMaxRows;
+    }
+
+    @Scheduled(fixedDelayString = "${antifraud.archive.interval:600000}", initialDelayString = "${antifraud.archive.interval:600000}")
+    public void run() {
+        if (!enabled || !cacheWarmup.isWarm()) {
+            return;
+        }
+        transactionArchive.deleteDroppedFiles();
+        LocalDateTime newest = transactionRepository.findTopByOrderByDateDesc()
+                .map(Transaction::getDate)
+                .orElse(null);
+        if (newest == null) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (newest.isAfter(now)) {
+            newest = now;
+        }
+        archiveBefore(newest.minus(after));
+        if (!retention.isZero()) {
+            dropBefore(newest.minus(retention));
+        }
+    }
+
+    private void archiveBefore(LocalDateTime cutoff) {
+        while (true) {
+            List<Transaction> rows = transactionHistoryReader.findOldest(cutoff, partitionMaxRows);
+            if (rows.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            TransactionPartition partition = transactionArchive.seal(rows);
+            log.info("Archived {} transactions dated {} to {} into {} in {} ms", rows.size(), partition.getFirstDate(),
+                    partition.getLastDate(), partition.getFileName(), (System.nanoTime() - start) / 1_000_000);
+            if (rows.size() < partitionMaxRows) {
+                return;
+            }
+        }
+    }
+
+    private void dropBefore(LocalDateTime cutoff) {
+        for (TransactionPartition partition : transactionArchive.readablePartitions()) {
+            if (partition.getLastDate().isBefore(cutoff)) {
+                transactionArchive.drop(partition);
+                log.info("Dropped partition {} ({} transactions up to {})", partition.getFileName(),
+                        partition.getRowCount(), partition.getLastDate());
+            }
+        }
+    }
+}
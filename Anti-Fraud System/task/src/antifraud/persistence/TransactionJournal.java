@@ -0,0 +1,211 @@
+package antifraud.persistence;
+
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of evaluated transactions that have not necessarily reached the database yet.
+ * Each record is {@code length, crc32, payload}; a torn record at the end of the file is ignored.
+ * The checkpoint file holds the sequence number of the last record known to be in the database; the
+ * database also stores each row's sequence number, which covers a batch committed without its checkpoint.
+ */
+class TransactionJournal implements AutoCloseable {
+
+    private static final String JOURNAL_FILE = "transactions.journal";
+    private static final String CHECKPOINT_FILE = "transactions.checkpoint";
+
+    private final Path journalPath;
+    private final Path checkpointPath;
+    private final boolean fsync;
+    // Not synchronized: appends fsync, and a virtual thread blocked in a monitor would pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private long lastSequence;
+
+    record Entry(long sequence, Transaction transaction) {
+    }
+
+    TransactionJournal(Path directory, boolean fsync) throws IOException {
+        Files.createDirectories(directory);
+        this.journalPath = directory.resolve(JOURNAL_FILE);
+        this.checkpointPath = directory.resolve(CHECKPOINT_FILE);
+        this.fsync = fsync;
+    }
+
+    /**
+     * Reads the records that are not covered by the checkpoint. Must be called before the journal is opened for appends.
+     *
+     * @param saved the newest sequence number found in the database
+     */
+    List<Entry> unpersisted(long saved) throws IOException {
+        long checkpoint = Math.max(readCheckpoint(), saved);
+        lastSequence = checkpoint;
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(journalPath)) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            while (true) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    break;
+                }
+                Entry entry = decode(payload);
+                lastSequence = Math.max(lastSequence, entry.sequence());
+                if (entry.sequence() > checkpoint) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    void open() throws IOException {
+        lock.lock();
+        try {
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long append(Transaction transaction) {
+        lock.lock();
+        try {
+            long sequence = lastSequence + 1;
+            byte[] payload = encode(sequence, transaction);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Long.BYTES + payload.length);
+            buffer.putInt(payload.length).putLong(crc.getValue()).put(payload).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+            lastSequence = sequence;
+            return sequence;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append to the transaction journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that everything up to {@code sequence} is in the database, and empties the journal
+     * when nothing newer has been appended.
+     */
+    void checkpoint(long sequence, long compactAfterBytes) throws IOException {
+        lock.lock();
+        try {
+            writeCheckpoint(sequence);
+            if (sequence == lastSequence && channel.size() > compactAfterBytes) {
+                channel.truncate(0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return 0;
+        }
+        String value = Files.readString(checkpointPath).trim();
+        return value.isEmpty() ? 0 : Long.parseLong(value);
+    }
+
+    private void writeCheckpoint(long sequence) throws IOException {
+        Path temporary = checkpointPath.resolveSibling(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(temporary, Long.toString(sequence));
+        Files.move(temporary, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] readRecord(DataInputStream data) throws IOException {
+        try {
+            int length = data.readInt();
+            long expected = data.readLong();
+            if (length <= 0 || length > 1 << 20) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            data.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return crc.getValue() == expected ? payload : null;
+        } catch (EOFException e) {
+            // Torn write at the end of the journal
+            return null;
+        }
+    }
+
+    private static byte[] encode(long sequence, Transaction transaction) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(sequence);
+            out.writeLong(transaction.getAmount());
+            out.writeUTF(transaction.getIp());
+            out.writeUTF(transaction.getNumber());
+            out.writeUTF(transaction.getRegion());
+            out.writeLong(transaction.getDate().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(transaction.getDate().getNano());
+            out.writeUTF(transaction.getResult().name());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            long sequence = in.readLong();
+            Transaction transaction = new Transaction();
+            transaction.setAmount(in.readLong());
+            transaction.setIp(in.readUTF());
+            transaction.setNumber(in.readUTF());
+            transaction.setRegion(in.readUTF());
+            long epochSecond = in.readLong();
+            int nano = in.readInt();
+            transaction.setDate(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+            transaction.setResult(Result.valueOf(in.readUTF()));
+            transaction.setJournalSequence(sequence);
+            return new Entry(sequence, transaction);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package antifraud.persistence;
+
+import antifraud.entity.Transaction;
+import antifraud.exception.ServiceBusyException;
+import antifraud.repository.TransactionIdSequence;
+import antifraud.repository.TransactionRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists evaluated transactions. By default the transaction is saved before the merchant gets
+ * the answer; with {@code antifraud.write-behind.enabled} it is appended to a local journal and
+ * queued, and a writer thread saves the queue in JDBC batches. Each row is saved with its journal
+ * sequence number, and the journal records after the newest one in the database are saved again
+ * on the next start.
+ */
+@Component
+public class TransactionWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionWriter.class);
+
+    private final TransactionRepository transactionRepository;
+    private final CardStatisticsWriter cardStatisticsWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean writeBehind;
+    private final Path journalDirectory;
+    private final boolean fsync;
+    private final int batchSize;
+    private final long compactAfterBytes;
+    private final Duration enqueueTimeout;
+
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    // Items in the queue; only the writer thread takes them out
+    private final Semaphore queued = new Semaphore(0);
+    private final Semaphore capacity;
+    private volatile List<Pending> inFlight = List.of();
+    private volatile boolean running;
+    private TransactionJournal journal;
+    private Thread writer;
+
+    private record Pending(long sequence, Transaction transaction) {
+    }
+
+    @Autowired
+    public TransactionWriter(TransactionRepository transactionRepository,
+                             ObjectProvider<TransactionIdSequence> transactionIdSequence,
+                             CardStatisticsWriter cardStatisticsWriter,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${antifraud.write-behind.enabled:false}") boolean writeBehind,
+                             @Value("${antifraud.write-behind.journal-dir:../transaction-journal}") String journalDirectory,
+                             @Value("${antifraud.write-behind.journal-fsync:true}") boolean fsync,
+                             @Value("${antifraud.write-behind.queue-capacity:10000}") int queueCapacity,
+                             @Value("${antifraud.write-behind.batch-size:500}") int batchSize,
+                             @Value("${antifraud.write-behind.compact-after-bytes:67108864}") long compactAfterBytes,
+                             @Value("${antifraud.write-behind.enqueue-timeout:PT1S}") Duration enqueueTimeout) {
+        // Resolving it aligns the sequence before the replay in start() saves anything; the mapped log has none
+        transactionIdSequence.getIfAvailable();
+        this.transactionRepository = transactionRepository;
+        this.cardStatisticsWriter = cardStatisticsWriter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.writeBehind = writeBehind;
+        this.journalDirectory = Path.of(journalDirectory);
+        this.fsync = fsync;
+        this.capacity = new Semaphore(queueCapacity);
+        this.batchSize = batchSize;
+        this.compactAfterBytes = compactAfterBytes;
+        this.enqueueTimeout = enqueueTimeout;
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!writeBehind) {
+            return;
+        }
+        journal = new TransactionJournal(journalDirectory, fsync);
+        Long saved = transactionRepository.findMaxJournalSequence();
+        List<TransactionJournal.Entry> unpersisted = journal.unpersisted(saved == null ? 0 : saved);
+        replay(unpersisted);
+        journal.open();
+        if (!unpersisted.isEmpty()) {
+            journal.checkpoint(unpersisted.get(unpersisted.size() - 1).sequence(), compactAfterBytes);
+        }
+
+        running = true;
+        writer = new Thread(this::drain, "transaction-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public void persist(Transaction transaction) {
+        if (!writeBehind) {
+            transactionRepository.save(transaction);
+            cardStatisticsWriter.record(transaction);
+            return;
+        }
+
+        // Reserve room in the queue first, so a merchant who gets an error never has a journaled transaction
+        try {
+            if (!capacity.tryAcquire(enqueueTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ServiceBusyException("Transaction queue is full, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBusyException("Interrupted while waiting for the transaction queue");
+        }
+        try {
+            enqueue(transaction);
+        } catch (RuntimeException e) {
+            capacity.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Persists a batch with one {@code saveAll}, so a storage outside the database transaction stores all of it
+     * or none. With write-behind the queue room for the whole batch is reserved before any item is journaled.
+     */
+    public void persistAll(List<Transaction> transactions) {
+        if (!writeBehind) {
+            transactionRepository.saveAll(transactions);
+            cardStatisticsWriter.recordAll(transactions);
+            return;
+        }
+
+        int permits = transactions.size();
+        try {
+            if (!capacity.tryAcquire(permits, enqueueTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ServiceBusyException("Transaction queue is full, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBusyException("Interrupted while waiting for the transaction queue");
+        }
+        int enqueued = 0;
+        try {
+            for (Transaction transaction : transactions) {
+                enqueue(transaction);
+                enqueued++;
+            }
+        } finally {
+            capacity.release(permits - enqueued);
+        }
+    }
+
+    private void enqueue(Transaction transaction) {
+        long sequence = journal.append(transaction);
+        transaction.setJournalSequence(sequence);
+        queue.add(new Pending(sequence, transaction));
+        queued.release();
+    }
+
+    /**
+     * Adds the regions and IPs of the card's not yet saved transactions dated in {@code (from, to]}. Call it
+     * before reading the database: a transaction is only taken off the pending list once it is saved.
+     */
+    public void collectPending(String number, LocalDateTime from, LocalDateTime to, Set<String> regions, Set<String> ips) {
+        if (!writeBehind) {
+            return;
+        }
+        collect(inFlight, number, from, to, regions, ips);
+        collect(queue, number, from, to, regions, ips);
+    }
+
+    private static void collect(Iterable<Pending> pending, String number, LocalDateTime from, LocalDateTime to,
+                                Set<String> regions, Set<String> ips) {
+        for (Pending item : pending) {
+            Transaction transaction = item.transaction();
+            if (transaction.getNumber().equals(number)
+                    && transaction.getDate().isAfter(from) && !transaction.getDate().isAfter(to)) {
+                regions.add(transaction.getRegion());
+                ips.add(transaction.getIp());
+            }
+        }
+    }
+
+    // A batch is published as in flight before it leaves the queue, so collectPending always sees each item
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            List<Pending> batch;
+            try {
+                if (!queued.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                int size = 1 + Math.min(queued.availablePermits(), batchSize - 1);
+                queued.acquire(size - 1);
+                batch = new ArrayList<>(size);
+                Iterator<Pending> head = queue.iterator();
+                while (batch.size() < size) {
+                    batch.add(head.next());
+                }
+                inFlight = batch;
+                for (int i = 0; i < size; i++) {
+                    queue.remove();
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            inFlight = List.of();
+            capacity.release(batch.size());
+        }
+    }
+
+    // Keeps retrying: the transactions are journaled and must not be dropped
+    private void write(List<Pending> batch) throws InterruptedException {
+        long backoff = 100;
+        while (true) {
+            try {
+                List<Transaction> transactions = batch.stream().map(Pending::transaction).toList();
+                transactionTemplate.executeWithoutResult(status -> transactionRepository.saveAll(transactions));
+                journal.checkpoint(batch.get(batch.size() - 1).sequence(), compactAfterBytes);
+                cardStatisticsWriter.recordAll(transactions);
+                return;
+            } catch (Exception e) {
+                log.error("Cannot write {} transactions, retrying in {} ms", batch.size(), backoff, e);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, 10_000);
+            }
+        }
+    }
+
+    // Batches are saved in journal order, so a batch committed without its checkpoint is already excluded
+    // by the newest sequence number in the database
+    private void replay(List<TransactionJournal.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<Transaction> missing = entries.stream().map(TransactionJournal.Entry::transaction).toList();
+        transactionTemplate.executeWithoutResult(status -> transactionRepository.saveAll(missing));
+        cardStatisticsWriter.recordAll(missing);
+        log.info("Replayed {} journaled transactions", missing.size());
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException, IOException {
+        if (!writeBehind) {
+            return;
+        }
+        running = false;
+        writer.join(30_000);
+        journal.close();
+    }
+}
@@ -0,0 +1,68 @@
+package antifraud.repository;
+
+import antifraud.response.StolenCardResponse;
+import antifraud.response.SuspiciousIPResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Plain JDBC access to the blacklist tables for bulk work: batched inserts of many values and
+ * exports streamed from a forward-only cursor.
+ */
+@Component
+public class BlacklistJdbcRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public BlacklistJdbcRepository(DataSource dataSource,
+                                   @Value("${antifraud.blacklist.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Inserts the card numbers that are not in the table yet, as one JDBC batch.
+     *
+     * @return the number of rows inserted
+     */
+    public int insertMissingStolenCards(List<String> numbers) {
+        return insertMissing("stolen_card", "merge into stolen_card (number) key (number) values (?)", numbers);
+    }
+
+    /**
+     * Inserts the IP addresses that are not in the table yet, as one JDBC batch.
+     *
+     * @return the number of rows inserted
+     */
+    public int insertMissingSuspiciousIps(List<String> ips) {
+        return insertMissing("suspiciousip", "merge into suspiciousip (ip) key (ip) values (?)", ips);
+    }
+
+    public void forEachStolenCard(Consumer<StolenCardResponse> action) {
+        jdbcTemplate.query("select id, number from stolen_card order by id", resultSet -> {
+            action.accept(new StolenCardResponse(resultSet.getLong(1), resultSet.getString(2)));
+        });
+    }
+
+    public void forEachSuspiciousIp(Consumer<SuspiciousIPResponse> action) {
+        jdbcTemplate.query("select id, ip from suspiciousip order by id", resultSet -> {
+            action.accept(new SuspiciousIPResponse(resultSet.getLong(1), resultSet.getString(2)));
+        });
+    }
+
+    // A merge on the unique key leaves an existing row as it is, even when another transaction inserted it
+    // concurrently, but reports it as one row updated; the insert count is the growth of the table
+    private int insertMissing(String table, String sql, List<String> values) {
+        String count = "select count(*) from " + table;
+        long before = jdbcTemplate.queryForObject(count, Long.class);
+        jdbcTemplate.batchUpdate(sql, values, values.size(), (statement, value) -> statement.setString(1, value));
+        return Math.toIntExact(jdbcTemplate.queryForObject(count, Long.class) - before);
+    }
+}
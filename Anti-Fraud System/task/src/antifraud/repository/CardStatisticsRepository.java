@@ -0,0 +1,14 @@
+package antifraud.repository;
+
+import antifraud.entity.CardStatistics;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+public interface CardStatisticsRepository extends JpaRepository<CardStatistics, String> {
+
+    @Query("select coalesce(sum(c.transactions), 0) from CardStatistics c")
+    long sumTransactions();
+
+    @Query("select coalesce(sum(c.allowedFeedback + c.manualProcessingFeedback + c.prohibitedFeedback), 0) from CardStatistics c")
+    long sumFeedback();
+}
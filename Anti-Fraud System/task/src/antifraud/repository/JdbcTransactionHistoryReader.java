@@ -0,0 +1,234 @@
+package antifraud.repository;
+
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+import antifraud.entity.TransactionPartition;
+import antifraud.persistence.TransactionArchive;
+import antifraud.response.TransactionResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Reads the transaction history in id order straight from a forward-only JDBC cursor, one row at
+ * a time, so callers can stream tables of any size without loading them into the persistence context.
+ * The history also covers the archived partitions, which are merged with the table by id.
+ */
+@Component
+@Profile("!mapped-log")
+public class JdbcTransactionHistoryReader implements TransactionHistoryReader {
+
+    private static final String COLUMNS = "select id, amount, ip, number, region, date, result, feedback from transaction";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionArchive transactionArchive;
+
+    @Autowired
+    public JdbcTransactionHistoryReader(DataSource dataSource,
+                                    TransactionArchive transactionArchive,
+                                    @Value("${antifraud.history.fetch-size:500}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionArchive = transactionArchive;
+    }
+
+    @Override
+    public void forEach(String number, long afterId, Integer limit, Consumer<TransactionResponse> action) {
+        StringBuilder sql = new StringBuilder(COLUMNS).append(" where id > ?");
+        List<Object> arguments = new ArrayList<>(3);
+        arguments.add(afterId);
+        if (number != null) {
+            sql.append(" and number = ?");
+            arguments.add(number);
+        }
+        sql.append(" order by id");
+        if (limit != null) {
+            sql.append(" fetch first ? rows only");
+            arguments.add(limit);
+        }
+        List<TransactionPartition> partitions = transactionArchive.readablePartitions().stream()
+                .filter(partition -> partition.getLastId() > afterId)
+                .toList();
+        if (partitions.isEmpty()) {
+            jdbcTemplate.query(sql.toString(), resultSet -> {
+                action.accept(toResponse(resultSet));
+            }, arguments.toArray());
+            return;
+        }
+        try (Stream<TransactionResponse> table = jdbcTemplate.queryForStream(sql.toString(),
+                (resultSet, row) -> toResponse(resultSet), arguments.toArray())) {
+            merge(partitions, number, afterId, limit, table.iterator(), action);
+        }
+    }
+
+    @Override
+    public boolean existsByNumber(String number) {
+        return jdbcTemplate.queryForObject("select exists(select 1 from transaction where number = ?)", Boolean.class, number)
+                || transactionArchive.containsCard(number);
+    }
+
+    /**
+     * The oldest transactions in id order, up to the first one dated at or after {@code before}.
+     */
+    public List<Transaction> findOldest(LocalDateTime before, int limit) {
+        return jdbcTemplate.query("select id, amount, ip, number, region, date, result, feedback from transaction "
+                + "order by id fetch first ? rows only", resultSet -> {
+            List<Transaction> rows = new ArrayList<>();
+            while (resultSet.next()) {
+                LocalDateTime date = resultSet.getObject("date", LocalDateTime.class);
+                if (!date.isBefore(before)) {
+                    break;
+                }
+                Transaction transaction = new Transaction();
+                transaction.setId(resultSet.getLong("id"));
+                transaction.setAmount(resultSet.getLong("amount"));
+                transaction.setIp(resultSet.getString("ip"));
+                transaction.setNumber(resultSet.getString("number"));
+                transaction.setRegion(resultSet.getString("region"));
+                transaction.setDate(date);
+                transaction.setResult(Result.parse(resultSet.getString("result")));
+                transaction.setFeedback(Result.parse(resultSet.getString("feedback")));
+                rows.add(transaction);
+            }
+            return rows;
+        }, limit);
+    }
+
+    private static final class Run {
+        private final Iterator<TransactionResponse> rows;
+        private TransactionResponse head;
+
+        Run(Iterator<TransactionResponse> rows) {
+            this.rows = rows;
+            advance();
+        }
+
+        void advance() {
+            head = rows.hasNext() ? rows.next() : null;
+        }
+    }
+
+    // Partitions are opened once their first id can come next, so normally only one is open at a time.
+    // Ids seen twice are rows of a partition whose deletes from the table have not finished.
+    private void merge(List<TransactionPartition> partitions, String number, long afterId, Integer limit,
+                       Iterator<TransactionResponse> table, Consumer<TransactionResponse> action) {
+        PriorityQueue<Run> runs = new PriorityQueue<>(Comparator.comparingLong((Run run) -> run.head.transactionId()));
+        Run tableRun = new Run(table);
+        if (tableRun.head != null) {
+            runs.add(tableRun);
+        }
+        int next = 0;
+        long written = 0;
+        long lastId = afterId;
+        while (limit == null || written < limit) {
+            while (next < partitions.size()
+                    && (runs.isEmpty() || partitions.get(next).getFirstId() <= runs.peek().head.transactionId())) {
+                Run run = new Run(readPartition(partitions.get(next++), number, afterId));
+                if (run.head != null) {
+                    runs.add(run);
+                }
+            }
+            Run run = runs.poll();
+            if (run == null) {
+                return;
+            }
+            TransactionResponse row = run.head;
+            run.advance();
+            if (run.head != null) {
+                runs.add(run);
+            }
+            if (row.transactionId() > lastId) {
+                lastId = row.transactionId();
+                action.accept(row);
+                written++;
+            }
+        }
+    }
+
+    // Rows come in id order, so skipping stops at the first one after afterId
+    private Iterator<TransactionResponse> readPartition(TransactionPartition partition, String number, long afterId) {
+        Iterator<Transaction> rows = transactionArchive.iterator(partition, number);
+        return new Iterator<>() {
+            private Transaction next = skipTo();
+
+            private Transaction skipTo() {
+                while (rows.hasNext()) {
+                    Transaction row = rows.next();
+                    if (row.getId() > afterId) {
+                        return row;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public TransactionResponse next() {
+                TransactionResponse response = new TransactionResponse(next);
+                next = rows.hasNext() ? rows.next() : null;
+                return response;
+            }
+        };
+    }
+
+    @Override
+    public void forEachDatedAfter(LocalDateTime after, Consumer<Transaction> action) {
+        jdbcTemplate.query("select number, date, region, ip from transaction where date > ? order by date", resultSet -> {
+            Transaction transaction = new Transaction();
+            transaction.setNumber(resultSet.getString("number"));
+            transaction.setDate(resultSet.getObject("date", LocalDateTime.class));
+            transaction.setRegion(resultSet.getString("region"));
+            transaction.setIp(resultSet.getString("ip"));
+            action.accept(transaction);
+        }, after);
+    }
+
+    @Override
+    public void forEachByNumber(long upToId, String afterNumber, Consumer<Transaction> action) {
+        jdbcTemplate.query("select id, number, amount, ip, region, date, result, feedback from transaction "
+                + "where id <= ? and number > ? order by number", resultSet -> {
+            Transaction transaction = new Transaction();
+            transaction.setId(resultSet.getLong("id"));
+            transaction.setNumber(resultSet.getString("number"));
+            transaction.setAmount(resultSet.getLong("amount"));
+            transaction.setIp(resultSet.getString("ip"));
+            transaction.setRegion(resultSet.getString("region"));
+            transaction.setDate(resultSet.getObject("date", LocalDateTime.class));
+            transaction.setResult(Result.parse(resultSet.getString("result")));
+            transaction.setFeedback(Result.parse(resultSet.getString("feedback")));
+            action.accept(transaction);
+        }, upToId, afterNumber);
+    }
+
+    private static TransactionResponse toResponse(ResultSet resultSet) throws SQLException {
+        String feedback = resultSet.getString("feedback");
+        return new TransactionResponse(
+                resultSet.getLong("id"),
+                resultSet.getLong("amount"),
+                resultSet.getString("ip"),
+                resultSet.getString("number"),
+                resultSet.getString("region"),
+                resultSet.getObject("date", LocalDateTime.class),
+                Result.parse(resultSet.getString("result")),
+                feedback != null ? feedback : "",
+                null);
+    }
+}
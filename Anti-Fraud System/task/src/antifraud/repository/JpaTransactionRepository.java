@@ -0,0 +1,29 @@
+package antifraud.repository;
+
+import antifraud.entity.Transaction;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Profile("!mapped-log")
+public interface JpaTransactionRepository extends JpaRepository<Transaction, Long>, TransactionRepository {
+    // Only the columns the correlation rules need, read from idx_transaction_number_date
+    @Override
+    @Query("select distinct t.region as region, t.ip as ip from Transaction t " +
+            "where t.number = :number and t.date > :from and t.date <= :to")
+    List<RegionAndIp> findRegionsAndIps(@Param("number") String number,
+                                        @Param("from") LocalDateTime from,
+                                        @Param("to") LocalDateTime to);
+
+    @Override
+    @Query("select max(t.id) from Transaction t")
+    Long findMaxId();
+
+    @Override
+    @Query("select max(t.journalSequence) from Transaction t")
+    Long findMaxJournalSequence();
+}
@@ -0,0 +1,10 @@
+package antifraud.repository;
+
+/**
+ * Projection of the transaction columns used by the correlation rules.
+ */
+public interface RegionAndIp {
+    String getRegion();
+
+    String getIp();
+}
@@ -2,6 +2,7 @@ package antifraud.repository;
 
 import antifraud.entity.StolenCard;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 import java.util.Optional;
@@ -11,8 +12,9 @@ public interface StolenCardRepository extends JpaRepository<StolenCard, Long> {
 
     void deleteByNumber(String number);
 
-    List<StolenCard> findAllByOrderByIdAsc();
-
     boolean existsByNumber(String number);
 
+    @Query("select s.number from StolenCard s")
+    List<String> findAllNumbers();
+
 }
@@ -2,6 +2,7 @@ package antifraud.repository;
 
 import antifraud.entity.SuspiciousIP;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 import java.util.Optional;
@@ -11,9 +12,10 @@ public interface SuspiciousIPRepository extends JpaRepository<SuspiciousIP, Long
 
     void deleteByIp(String ip);
 
-    List<SuspiciousIP> findAllByOrderByIdAsc();
-
     boolean existsByIp(String ip);
 
+    @Query("select s.ip from SuspiciousIP s")
+    List<String> findAllIps();
+
 
 }
\ No newline at end of file
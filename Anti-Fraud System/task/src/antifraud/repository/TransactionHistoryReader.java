@@ -0,0 +1,35 @@
+package antifraud.repository;
+
+import antifraud.entity.Transaction;
+import antifraud.response.TransactionResponse;
+
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+/**
+ * Streaming reads of the transaction history, passed to the caller one transaction at a time.
+ */
+public interface TransactionHistoryReader {
+
+    /**
+     * Passes the transactions with an id greater than {@code afterId} to the action, in id order.
+     *
+     * @param number the card number to restrict the history to, or {@code null} for all cards
+     * @param limit  the maximum number of rows, or {@code null} for no limit
+     */
+    void forEach(String number, long afterId, Integer limit, Consumer<TransactionResponse> action);
+
+    boolean existsByNumber(String number);
+
+    /**
+     * Passes the transactions dated after {@code after} to the action, oldest first. Only the number,
+     * date, region and IP are set.
+     */
+    void forEachDatedAfter(LocalDateTime after, Consumer<Transaction> action);
+
+    /**
+     * Passes the transactions with an id up to {@code upToId} to the action, grouped by card in number order,
+     * starting after card {@code afterNumber}.
+     */
+    void forEachByNumber(long upToId, String afterNumber, Consumer<Transaction> action);
+}
@@ -0,0 +1,45 @@
+package antifraud.repository;
+
+import antifraud.entity.Transaction;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the transaction id sequence past the ids already in the table. Databases created while
+ * ids came from an IDENTITY column have rows the new sequence knows nothing about. A sequence that is
+ * already ahead is left alone. Anything that saves transactions while the application starts has to
+ * be created after this bean.
+ */
+@Component
+@Profile("!mapped-log")
+public class TransactionIdSequence {
+
+    private final JpaTransactionRepository transactionRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public TransactionIdSequence(JpaTransactionRepository transactionRepository, JdbcTemplate jdbcTemplate) {
+        this.transactionRepository = transactionRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void alignWithExistingIds() {
+        Long maxId = transactionRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+        // The pooled optimizer hands out the block ending at the value it reads
+        long next = maxId + Transaction.ID_ALLOCATION_SIZE + 1;
+        // Hibernate creates the sequence with the table, so the row is always there
+        long current = jdbcTemplate.queryForObject(
+                "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = ?",
+                Long.class, Transaction.ID_SEQUENCE.toUpperCase());
+        if (current < next) {
+            jdbcTemplate.execute("ALTER SEQUENCE " + Transaction.ID_SEQUENCE + " RESTART WITH " + next);
+        }
+    }
+}
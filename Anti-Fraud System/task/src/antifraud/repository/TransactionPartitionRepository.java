@@ -0,0 +1,12 @@
+package antifraud.repository;
+
+import antifraud.entity.TransactionPartition;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface TransactionPartitionRepository extends JpaRepository<TransactionPartition, Long> {
+
+    List<TransactionPartition> findByStateInOrderByFirstIdAsc(Collection<TransactionPartition.State> states);
+}
@@ -2,15 +2,43 @@ package antifraud.repository;
 
 
 import antifraud.entity.Transaction;
-import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
-public interface TransactionRepository extends JpaRepository<Transaction, Long> {
-    List<Transaction> findAllByNumberAndDateAfter(String number, LocalDateTime date);
+/**
+ * Storage of evaluated transactions: the transaction table ({@link JpaTransactionRepository}), or with the
+ * {@code mapped-log} profile an append-only log of memory-mapped files
+ * ({@link antifraud.persistence.MappedTransactionLog}).
+ */
+public interface TransactionRepository {
 
-    List<Transaction> findAllByOrderByIdAsc();
+    <S extends Transaction> S save(S transaction);
 
-    List<Transaction> findAllByNumberOrderByIdAsc(String number);
+    <S extends Transaction> List<S> saveAll(Iterable<S> transactions);
+
+    Optional<Transaction> findById(Long id);
+
+    long count();
+
+    // The distinct regions and IPs of a card's transactions dated in (from, to]
+    List<RegionAndIp> findRegionsAndIps(String number, LocalDateTime from, LocalDateTime to);
+
+    long countByFeedbackIsNotNull();
+
+    Optional<Transaction> findTopByOrderByDateDesc();
+
+    // The newest write-behind journal record that was saved, null if none was
+    Long findMaxJournalSequence();
+
+    Long findMaxId();
+
+    /**
+     * Whether a transaction with these fields can be stored; checked before it is evaluated. The table takes
+     * anything that passed validation.
+     */
+    default boolean canStore(String number, String ip, LocalDateTime date) {
+        return true;
+    }
 }
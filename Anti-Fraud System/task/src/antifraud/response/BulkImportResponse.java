@@ -0,0 +1,8 @@
+package antifraud.response;
+
+/**
+ * Outcome of a bulk blacklist import. Every received value is counted exactly once: imported,
+ * already in the table, a repeat of an earlier value in the same feed, or invalid.
+ */
+public record BulkImportResponse(long received, long imported, long existing, long duplicates, long invalid) {
+}
@@ -0,0 +1,20 @@
+package antifraud.response;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Totals of a card's transactions. {@code distinctIps} is an estimate (within a few percent).
+ */
+public record CardSummaryResponse(String number,
+                                  long transactions,
+                                  long totalAmount,
+                                  long minAmount,
+                                  long maxAmount,
+                                  LocalDateTime lastSeen,
+                                  List<String> regions,
+                                  Map<String, Long> results,
+                                  Map<String, Long> feedback,
+                                  long distinctIps) {
+}
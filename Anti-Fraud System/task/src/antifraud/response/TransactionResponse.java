@@ -1,5 +1,6 @@
 package antifraud.response;
 
+import antifraud.entity.Result;
 import antifraud.entity.Transaction;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
@@ -14,18 +15,18 @@ public record TransactionResponse(
         String number,
         String region,
         LocalDateTime date,
-        String result,
+        Result result,
         String feedback,
         String info
 ) {
     // Overloaded constructor to handle cases without feedback (e.g., initial transaction evaluation)
-    public TransactionResponse(String result, String info) {
+    public TransactionResponse(Result result, String info) {
         this(null, null, null, null, null, null, result, null, info);
     }
 
     // Constructor for creating a response from a Transaction entity
     public TransactionResponse(Transaction transaction) {
         this(transaction.getId(), transaction.getAmount(), transaction.getIp(), transaction.getNumber(),
-                transaction.getRegion(), transaction.getDate(), transaction.getResult(), transaction.getFeedback() != null ? transaction.getFeedback() : "", null);
+                transaction.getRegion(), transaction.getDate(), transaction.getResult(), transaction.getFeedback() != null ? transaction.getFeedback().name() : "", null);
     }
 }
\ No newline at end of file
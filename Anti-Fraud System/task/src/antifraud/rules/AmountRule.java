@@ -0,0 +1,38 @@
+package antifraud.rules;
+
+import antifraud.cache.FraudLimitsHolder.Limits;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compares the amount with the adaptive limits. An amount above the manual processing limit is
+ * always prohibited; one above the allowed limit is sent to manual processing, but is only reported
+ * when no earlier rule has fired, so it runs after the blacklist rules.
+ */
+@Component
+@Order(3)
+public class AmountRule implements FraudRule {
+
+    @Override
+    public Reason reason() {
+        return Reason.AMOUNT;
+    }
+
+    @Override
+    public RuleCost cost() {
+        return RuleCost.IN_MEMORY;
+    }
+
+    @Override
+    public Finding evaluate(RuleContext context) {
+        long amount = context.request().amount();
+        Limits limits = context.limits();
+        if (amount > limits.maxManualProcessing()) {
+            return new Finding(reason(), Verdict.FORCE_PROHIBIT);
+        }
+        if (amount > limits.maxAllowed() && !context.isFlagged()) {
+            return new Finding(reason(), Verdict.REVIEW);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,17 @@
+package antifraud.rules;
+
+final class CorrelationVerdicts {
+
+    private CorrelationVerdicts() {
+    }
+
+    static Finding of(Reason reason, long count) {
+        if (count > 2) {
+            return new Finding(reason, Verdict.PROHIBIT);
+        }
+        if (count == 2) {
+            return new Finding(reason, Verdict.INSIST_ON_REVIEW);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,7 @@
+package antifraud.rules;
+
+/**
+ * A fired rule: the reason reported in the transaction's info and the verdict it asks for.
+ */
+public record Finding(Reason reason, Verdict verdict) {
+}
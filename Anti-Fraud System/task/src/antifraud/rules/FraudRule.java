@@ -0,0 +1,20 @@
+package antifraud.rules;
+
+/**
+ * A fraud check run by the {@link RuleEngine}. Rules are Spring beans; within the same
+ * {@link #cost()} they run in {@link org.springframework.core.annotation.Order} order.
+ */
+public interface FraudRule {
+
+    /**
+     * The reason reported in the transaction's info; its label also names the rule in metrics and configuration.
+     */
+    Reason reason();
+
+    RuleCost cost();
+
+    /**
+     * @return the finding if the rule fires, {@code null} otherwise
+     */
+    Finding evaluate(RuleContext context);
+}
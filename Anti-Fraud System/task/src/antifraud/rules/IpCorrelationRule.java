@@ -0,0 +1,28 @@
+package antifraud.rules;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fires when the card was used from two or more other IPs in the past hour, with the same
+ * verdicts as {@link RegionCorrelationRule}.
+ */
+@Component
+@Order(11)
+public class IpCorrelationRule implements FraudRule {
+
+    @Override
+    public Reason reason() {
+        return Reason.IP_CORRELATION;
+    }
+
+    @Override
+    public RuleCost cost() {
+        return RuleCost.HISTORY;
+    }
+
+    @Override
+    public Finding evaluate(RuleContext context) {
+        return CorrelationVerdicts.of(reason(), context.correlation().ipCount());
+    }
+}
@@ -0,0 +1,57 @@
+package antifraud.rules;
+
+/**
+ * Why a rule fired. A set of reasons is a bitmask of {@link #bit()}s, and its info string is looked
+ * up rather than joined for every transaction.
+ */
+public enum Reason {
+    // In the alphabetical order of the labels, the order the info lists them in
+    AMOUNT("amount"),
+    CARD_NUMBER("card-number"),
+    IP("ip"),
+    IP_CORRELATION("ip-correlation"),
+    REGION_CORRELATION("region-correlation");
+
+    private static final String[] INFO = infoStrings();
+
+    private final String label;
+
+    Reason(String label) {
+        this.label = label;
+    }
+
+    /**
+     * The name reported in the transaction's info, metrics and configuration.
+     */
+    public String label() {
+        return label;
+    }
+
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * @param reasons a bitmask of {@link #bit()}s
+     * @return the labels joined by {@code ", "}, or {@code "none"} for no reasons
+     */
+    public static String info(int reasons) {
+        return INFO[reasons];
+    }
+
+    private static String[] infoStrings() {
+        Reason[] reasons = values();
+        String[] info = new String[1 << reasons.length];
+        info[0] = "none";
+        for (int mask = 1; mask < info.length; mask++) {
+            StringBuilder joined = new StringBuilder();
+            for (Reason reason : reasons) {
+                if ((mask & reason.bit()) != 0) {
+                    joined.append(joined.isEmpty() ? "" : ", ").append(reason.label);
+                }
+            }
+            info[mask] = joined.toString();
+        }
+        return info;
+    }
+}
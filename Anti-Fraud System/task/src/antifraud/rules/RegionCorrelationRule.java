@@ -0,0 +1,28 @@
+package antifraud.rules;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fires when the card was used from two or more other regions in the past hour. Exactly two sends
+ * the transaction to manual processing even if other rules prohibit it; more than two prohibits it.
+ */
+@Component
+@Order(10)
+public class RegionCorrelationRule implements FraudRule {
+
+    @Override
+    public Reason reason() {
+        return Reason.REGION_CORRELATION;
+    }
+
+    @Override
+    public RuleCost cost() {
+        return RuleCost.HISTORY;
+    }
+
+    @Override
+    public Finding evaluate(RuleContext context) {
+        return CorrelationVerdicts.of(reason(), context.correlation().regionCount());
+    }
+}
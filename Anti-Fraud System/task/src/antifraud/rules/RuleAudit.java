@@ -0,0 +1,74 @@
+package antifraud.rules;
+
+import antifraud.request.TransactionRequest;
+import antifraud.rules.RuleEngine.Decision;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Re-runs short-circuited evaluations with every rule on a background thread and logs the complete
+ * reasons, so fast decisions stay auditable. Best effort: when the queue is full the audit is dropped
+ * and counted, and a re-run sees the card's history as it is then, not as it was at decision time.
+ */
+@Component
+public class RuleAudit {
+
+    private static final Logger log = LoggerFactory.getLogger(RuleAudit.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Counter divergent;
+    private final Counter dropped;
+
+    @Autowired
+    public RuleAudit(MeterRegistry meterRegistry,
+                     @Value("${antifraud.rules.audit.enabled:false}") boolean enabled,
+                     @Value("${antifraud.rules.audit.queue-capacity:10000}") int queueCapacity) {
+        this.divergent = Counter.builder("antifraud.rule.audit.divergent").register(meterRegistry);
+        this.dropped = Counter.builder("antifraud.rule.audit.dropped").register(meterRegistry);
+        this.executor = enabled
+                ? new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "rule-audit");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, pool) -> dropped.increment())
+                : null;
+    }
+
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    void submit(TransactionRequest request, Decision fast, Supplier<Decision> full) {
+        executor.execute(() -> {
+            Decision complete = full.get();
+            if (complete.result() != fast.result()) {
+                divergent.increment();
+            }
+            log.info("Card ending {} at {}, amount {}: decided {} ({}), all rules give {} ({})",
+                    lastDigits(request.number()), request.date(), request.amount(),
+                    fast.result(), fast.info(), complete.result(), complete.info());
+        });
+    }
+
+    private static String lastDigits(String number) {
+        return number.length() > 4 ? number.substring(number.length() - 4) : number;
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package antifraud.rules;
+
+import antifraud.cache.FraudLimitsHolder.Limits;
+import antifraud.cache.VelocityIndex.Correlation;
+import antifraud.request.TransactionRequest;
+
+import java.util.function.Supplier;
+
+/**
+ * What the rules see of one evaluation. The card's history is only loaded when a rule first asks for it.
+ */
+public final class RuleContext {
+
+    private final TransactionRequest request;
+    private final Limits limits;
+    private final Supplier<Correlation> history;
+    private Correlation correlation;
+    private boolean flagged;
+
+    RuleContext(TransactionRequest request, Limits limits, Supplier<Correlation> history) {
+        this.request = request;
+        this.limits = limits;
+        this.history = history;
+    }
+
+    public TransactionRequest request() {
+        return request;
+    }
+
+    public Limits limits() {
+        return limits;
+    }
+
+    /**
+     * Whether a rule that ran earlier in the pipeline has fired.
+     */
+    public boolean isFlagged() {
+        return flagged;
+    }
+
+    public Correlation correlation() {
+        if (correlation == null) {
+            correlation = history.get();
+        }
+        return correlation;
+    }
+
+    void flag() {
+        flagged = true;
+    }
+}
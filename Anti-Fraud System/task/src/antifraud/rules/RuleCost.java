@@ -0,0 +1,11 @@
+package antifraud.rules;
+
+/**
+ * How expensive a rule is to run. The engine runs cheaper rules first.
+ */
+public enum RuleCost {
+    // Looks only at the request, the limits and in-memory caches
+    IN_MEMORY,
+    // Needs the card's recent transactions
+    HISTORY
+}
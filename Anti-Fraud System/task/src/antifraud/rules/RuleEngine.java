@@ -0,0 +1,138 @@
+package antifraud.rules;
+
+import antifraud.cache.FraudLimitsHolder.Limits;
+import antifraud.cache.VelocityIndex.Correlation;
+import antifraud.entity.Result;
+import antifraud.request.TransactionRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the enabled {@link FraudRule}s as a fixed pipeline, in-memory rules before history rules,
+ * and turns their findings into the transaction's result and info.
+ * <p>
+ * Each rule is timed under {@code antifraud.rule.evaluation} (tag {@code rule}); loading the
+ * card's history is timed separately under {@code antifraud.rule.history}. Decisions are counted
+ * under {@code antifraud.decisions} (tag {@code result}) and {@code antifraud.decision.reasons}
+ * (tag {@code reason}); background audit re-runs are not counted.
+ * <p>
+ * In fast-decision mode ({@code antifraud.rules.fast-decision}) a transaction the in-memory rules
+ * force to be prohibited, one whose amount is above the manual processing limit, is not looked up in
+ * history. Its result is the same as with every rule, but its info lists only the in-memory reasons.
+ * {@link RuleAudit} can re-run such evaluations in full in the background.
+ */
+@Component
+public class RuleEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(RuleEngine.class);
+
+    private final List<CompiledRule> pipeline;
+    private final Timer historyTimer;
+    private final Counter shortCircuits;
+    private final Map<Result, Counter> decisions;
+    private final boolean fastDecision;
+    private final RuleAudit audit;
+
+    public record Decision(Result result, String info) {
+    }
+
+    private record CompiledRule(FraudRule rule, Timer timer, Counter findings) {
+    }
+
+    private record Outcome(Decision decision, boolean shortCircuited) {
+    }
+
+    // The injected list is already in @Order order, the sort by cost keeps that order within a cost
+    @Autowired
+    public RuleEngine(List<FraudRule> rules,
+                      MeterRegistry meterRegistry,
+                      RuleAudit audit,
+                      @Value("${antifraud.rules.disabled:}") Set<String> disabled,
+                      @Value("${antifraud.rules.fast-decision:false}") boolean fastDecision) {
+        this.pipeline = rules.stream()
+                .filter(rule -> !disabled.contains(rule.reason().label()))
+                .sorted(Comparator.comparing(FraudRule::cost))
+                .map(rule -> new CompiledRule(rule,
+                        Timer.builder("antifraud.rule.evaluation").tag("rule", rule.reason().label()).register(meterRegistry),
+                        Counter.builder("antifraud.decision.reasons").tag("reason", rule.reason().label()).register(meterRegistry)))
+                .toList();
+        this.decisions = new EnumMap<>(Result.class);
+        for (Result result : Result.values()) {
+            decisions.put(result, Counter.builder("antifraud.decisions").tag("result", result.name()).register(meterRegistry));
+        }
+        this.historyTimer = Timer.builder("antifraud.rule.history").register(meterRegistry);
+        this.shortCircuits = Counter.builder("antifraud.rule.short-circuit").register(meterRegistry);
+        this.fastDecision = fastDecision;
+        this.audit = audit;
+        log.info("Fraud rule pipeline: {}", pipeline.stream().map(compiled -> compiled.rule().reason().label()).toList());
+    }
+
+    /**
+     * @param history loads the card's correlation counts; called at most once, and only if a history rule runs
+     */
+    public Decision evaluate(TransactionRequest request, Limits limits, Supplier<Correlation> history) {
+        Supplier<Correlation> timedHistory = () -> historyTimer.record(history);
+        Outcome outcome = run(new RuleContext(request, limits, timedHistory), fastDecision, true);
+        decisions.get(outcome.decision().result()).increment();
+        if (outcome.shortCircuited()) {
+            shortCircuits.increment();
+            if (audit.isEnabled()) {
+                audit.submit(request, outcome.decision(), () -> run(new RuleContext(request, limits, history), false, false).decision());
+            }
+        }
+        return outcome.decision();
+    }
+
+    // With fastDecision the history rules are skipped once the verdict is FORCE_PROHIBIT, which no rule can
+    // override; they could only add reasons. A plain PROHIBIT, a blacklist hit, still runs them, as a
+    // correlation count of exactly 2 insists on manual processing.
+    private Outcome run(RuleContext context, boolean fastDecision, boolean counted) {
+        int reasons = 0;
+        Verdict verdict = null;
+        boolean shortCircuited = false;
+
+        boolean inHistory = false;
+
+        for (CompiledRule compiled : pipeline) {
+            if (!inHistory && compiled.rule().cost() == RuleCost.HISTORY) {
+                inHistory = true;
+                if (fastDecision && verdict == Verdict.FORCE_PROHIBIT) {
+                    shortCircuited = true;
+                    break;
+                }
+            }
+
+            long start = System.nanoTime();
+            Finding finding = compiled.rule().evaluate(context);
+            compiled.timer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            if (finding != null) {
+                if (counted) {
+                    compiled.findings().increment();
+                }
+                reasons |= finding.reason().bit();
+                context.flag();
+                if (verdict == null || finding.verdict().compareTo(verdict) > 0) {
+                    verdict = finding.verdict();
+                }
+            }
+        }
+
+        Result result = verdict == null ? Result.ALLOWED : verdict.result();
+        return new Outcome(new Decision(result, Reason.info(reasons)), shortCircuited);
+    }
+}
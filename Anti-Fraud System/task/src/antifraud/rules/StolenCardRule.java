@@ -0,0 +1,35 @@
+package antifraud.rules;
+
+import antifraud.service.StolenCardService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+@Component
+@Order(2)
+public class StolenCardRule implements FraudRule {
+
+    private final StolenCardService stolenCardService;
+
+    @Autowired
+    public StolenCardRule(StolenCardService stolenCardService) {
+        this.stolenCardService = stolenCardService;
+    }
+
+    @Override
+    public Reason reason() {
+        return Reason.CARD_NUMBER;
+    }
+
+    @Override
+    public RuleCost cost() {
+        return RuleCost.IN_MEMORY;
+    }
+
+    @Override
+    public Finding evaluate(RuleContext context) {
+        return stolenCardService.isCardNumberBlacklisted(context.request().number())
+                ? new Finding(reason(), Verdict.PROHIBIT)
+                : null;
+    }
+}
@@ -0,0 +1,35 @@
+package antifraud.rules;
+
+import antifraud.service.SuspiciousIpService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+@Component
+@Order(1)
+public class SuspiciousIpRule implements FraudRule {
+
+    private final SuspiciousIpService suspiciousIpService;
+
+    @Autowired
+    public SuspiciousIpRule(SuspiciousIpService suspiciousIpService) {
+        this.suspiciousIpService = suspiciousIpService;
+    }
+
+    @Override
+    public Reason reason() {
+        return Reason.IP;
+    }
+
+    @Override
+    public RuleCost cost() {
+        return RuleCost.IN_MEMORY;
+    }
+
+    @Override
+    public Finding evaluate(RuleContext context) {
+        return suspiciousIpService.isIpBlacklisted(context.request().ip())
+                ? new Finding(reason(), Verdict.PROHIBIT)
+                : null;
+    }
+}
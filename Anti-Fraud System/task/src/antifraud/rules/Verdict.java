@@ -0,0 +1,26 @@
+package antifraud.rules;
+
+import antifraud.entity.Result;
+
+/**
+ * What a rule asks for when it fires. When several rules fire, the verdict declared last wins.
+ */
+public enum Verdict {
+    // Manual processing, unless another rule prohibits the transaction
+    REVIEW(Result.MANUAL_PROCESSING),
+    PROHIBIT(Result.PROHIBITED),
+    // Manual processing even if another rule prohibits the transaction
+    INSIST_ON_REVIEW(Result.MANUAL_PROCESSING),
+    // Prohibited whatever the other rules say
+    FORCE_PROHIBIT(Result.PROHIBITED);
+
+    private final Result result;
+
+    Verdict(Result result) {
+        this.result = result;
+    }
+
+    public Result result() {
+        return result;
+    }
+}
@@ -0,0 +1,134 @@
+package antifraud.security;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers successful HTTP Basic authentications for a short time so repeat requests skip BCrypt.
+ * Entries are keyed by an HMAC of the username and password under a per-process random key,
+ * so neither the password nor a reusable hash of it is held in memory.
+ * <p>
+ * An authentication that started before its user was invalidated must not be cached afterwards, so callers
+ * read {@link #generation} before authenticating and pass it to {@link #put}, which drops stale results.
+ */
+@Component
+public class AuthenticationCache {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Values of the clock when a user was last invalidated; only changed users have an entry
+    private final AtomicLong clock = new AtomicLong();
+    private final ConcurrentHashMap<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+    private record Entry(String username, Authentication authentication, long expiresAt) {
+    }
+
+    @Autowired
+    public AuthenticationCache(@Value("${antifraud.auth-cache.ttl:PT5M}") Duration ttl,
+                               @Value("${antifraud.auth-cache.max-size:10000}") int maxSize) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    public Authentication get(String username, String password) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        String cacheKey = cacheKey(username, password);
+        Entry entry = entries.get(cacheKey);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt() > 0) {
+            entries.remove(cacheKey, entry);
+            return null;
+        }
+        return entry.authentication();
+    }
+
+    /**
+     * Changes whenever the user is invalidated; read it before authenticating.
+     */
+    public long generation(String username) {
+        return invalidatedAt.getOrDefault(username, 0L);
+    }
+
+    /**
+     * Caches an authentication unless the user was invalidated since {@code generation} was read.
+     */
+    public void put(String username, String password, Authentication authentication, long generation) {
+        if (maxSize <= 0 || generation(username) != generation) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+        String cacheKey = cacheKey(username, password);
+        Entry entry = new Entry(username, authentication, System.nanoTime() + ttlNanos);
+        entries.put(cacheKey, entry);
+        // An invalidation between the check and the put may have missed the entry
+        if (generation(username) != generation) {
+            entries.remove(cacheKey, entry);
+        }
+    }
+
+    // Called whenever something the authentication depends on (role, lock state, the user itself) changes.
+    // The generation moves before the entries are removed, so put either sees it or its entry is removed.
+    public void invalidate(String username) {
+        invalidatedAt.put(username, clock.incrementAndGet());
+        entries.values().removeIf(entry -> entry.username().equals(username));
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> now - entry.expiresAt() > 0);
+
+        // Still full: drop arbitrary entries until there is some headroom again
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() >= maxSize * 9 / 10 && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private String cacheKey(String username, String password) {
+        Mac mac = macs.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(password.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + HMAC_ALGORITHM, e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package antifraud.security;
+
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Answers repeat authentications from the {@link AuthenticationCache} and only hands cache misses
+ * to the delegate. Failed attempts are never cached.
+ */
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    private final AuthenticationProvider delegate;
+    private final AuthenticationCache cache;
+
+    public CachingAuthenticationProvider(AuthenticationProvider delegate, AuthenticationCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        String username = authentication.getName();
+        Object credentials = authentication.getCredentials();
+        if (credentials == null) {
+            return delegate.authenticate(authentication);
+        }
+        String password = credentials.toString();
+
+        Authentication cached = cache.get(username, password);
+        if (cached != null) {
+            // A fresh token each time, the cached one must not be touched by credential erasure
+            return UsernamePasswordAuthenticationToken.authenticated(cached.getPrincipal(), null, cached.getAuthorities());
+        }
+
+        // Read first: a role or lock change while the delegate loads the user must keep its result out of the cache
+        long generation = cache.generation(username);
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.isAuthenticated()) {
+            cache.put(username, password,
+                    UsernamePasswordAuthenticationToken.authenticated(result.getPrincipal(), null, result.getAuthorities()),
+                    generation);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+}
@@ -0,0 +1,178 @@
+package antifraud.service;
+
+import antifraud.response.BulkImportResponse;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * The values of one bulk import, read in a single pass. Valid values are packed into a growing
+ * {@code long[]} the way the blacklist packs them, then sorted and de-duplicated; values the blacklist
+ * cannot pack are de-duplicated in a set.
+ */
+final class BlacklistFeed {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final String field;
+    private final Predicate<String> valid;
+    private final ToLongFunction<String> pack;
+    private final int maxValues;
+
+    private long[] keys = new long[1024];
+    private int keyCount;
+    private final Set<String> others = new LinkedHashSet<>();
+    private long received;
+    private long invalid;
+    private long duplicates;
+
+    /**
+     * @param field     the CSV header and NDJSON field holding the value
+     * @param pack      packs a valid value, or returns a negative number if it cannot be packed
+     * @param maxValues the most values a feed may contain
+     */
+    BlacklistFeed(String field, Predicate<String> valid, ToLongFunction<String> pack, int maxValues) {
+        this.field = field;
+        this.valid = valid;
+        this.pack = pack;
+        this.maxValues = maxValues;
+    }
+
+    BlacklistFeed read(InputStream body, BulkFormat format) throws IOException {
+        if (format == BulkFormat.NDJSON) {
+            readLines(body);
+        } else {
+            readCsv(body);
+        }
+        Arrays.sort(keys, 0, keyCount);
+        int distinct = 0;
+        for (int i = 0; i < keyCount; i++) {
+            if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        duplicates += keyCount - distinct;
+        keyCount = distinct;
+        return this;
+    }
+
+    private void readCsv(InputStream body) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        boolean first = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comma = line.indexOf(',');
+            String value = (comma >= 0 ? line.substring(0, comma) : line).strip();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if (value.isEmpty() || first && value.equalsIgnoreCase(field)) {
+                first = false;
+                continue;
+            }
+            first = false;
+            accept(value);
+        }
+    }
+
+    private void readLines(InputStream body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Expected one JSON object per line");
+                }
+                String value = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.VALUE_STRING && field.equals(name)) {
+                        value = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                accept(value);
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid NDJSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private void accept(String value) {
+        if (++received > maxValues) {
+            throw new IllegalArgumentException("A bulk import takes at most " + maxValues + " values");
+        }
+        if (value == null || !valid.test(value)) {
+            invalid++;
+            return;
+        }
+        long key = pack.applyAsLong(value);
+        if (key < 0) {
+            if (!others.add(value)) {
+                duplicates++;
+            }
+            return;
+        }
+        if (keyCount == keys.length) {
+            keys = Arrays.copyOf(keys, keyCount * 2);
+        }
+        keys[keyCount++] = key;
+    }
+
+    /**
+     * Passes the distinct values to the action in lists of at most {@code batchSize}.
+     */
+    void forEachBatch(int batchSize, LongFunction<String> unpack, Consumer<List<String>> action) {
+        List<String> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < keyCount; i++) {
+            batch.add(unpack.apply(keys[i]));
+            if (batch.size() == batchSize) {
+                action.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        for (String value : others) {
+            batch.add(value);
+            if (batch.size() == batchSize) {
+                action.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            action.accept(batch);
+        }
+    }
+
+    long[] keys() {
+        return keys;
+    }
+
+    int keyCount() {
+        return keyCount;
+    }
+
+    Set<String> others() {
+        return others;
+    }
+
+    BulkImportResponse response(long imported) {
+        long distinct = keyCount + others.size();
+        return new BulkImportResponse(received, imported, distinct - imported, duplicates, invalid);
+    }
+}
@@ -0,0 +1,11 @@
+package antifraud.service;
+
+/**
+ * Body formats of the bulk blacklist endpoints.
+ */
+public enum BulkFormat {
+    /** One value per line, in the first column; an optional header row names the field. */
+    CSV,
+    /** One JSON object per line, e.g. {@code {"number":"4000008449433403"}}. */
+    NDJSON
+}
@@ -0,0 +1,146 @@
+package antifraud.service;
+
+import antifraud.exception.ServiceBusyException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs evaluations on single-threaded shards chosen by card number, so the transactions of one card
+ * are decided one after the other while different cards use all shards. A shard must finish with a
+ * card (decision and velocity index update) before it looks at the card's next transaction.
+ * <p>
+ * Metrics per shard (tag {@code shard}): {@code antifraud.shard.queue.depth},
+ * {@code antifraud.shard.wait} (time queued) and {@code antifraud.shard.execution}.
+ */
+@Component
+public class EvaluationShards {
+
+    private final Shard[] shards;
+
+    private record Shard(ThreadPoolExecutor executor, Timer waiting, Timer execution) {
+    }
+
+    @Autowired
+    public EvaluationShards(MeterRegistry meterRegistry,
+                            @Value("${antifraud.shards.count:0}") int count,
+                            @Value("${antifraud.shards.queue-capacity:10000}") int queueCapacity) {
+        int shardCount = count > 0 ? count : Runtime.getRuntime().availableProcessors();
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "evaluation-shard-" + i;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            String shard = Integer.toString(i);
+            Gauge.builder("antifraud.shard.queue.depth", executor, pool -> pool.getQueue().size())
+                    .tag("shard", shard)
+                    .register(meterRegistry);
+            shards[i] = new Shard(executor,
+                    Timer.builder("antifraud.shard.wait").tag("shard", shard).register(meterRegistry),
+                    Timer.builder("antifraud.shard.execution").tag("shard", shard).register(meterRegistry));
+        }
+    }
+
+    /**
+     * Runs the task on the card's shard and waits for its result.
+     */
+    public <T> T run(String number, Supplier<T> task) {
+        return join(submit(shardOf(number), task));
+    }
+
+    /**
+     * Runs the task for every item, each on its card's shard. Items of the same card are run in list
+     * order; the results come back in list order.
+     */
+    public <T, R> List<R> runAll(List<T> items, Function<T, String> number, Function<T, R> task) {
+        List<List<Integer>> positions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < items.size(); i++) {
+            positions.get(shardOf(number.apply(items.get(i)))).add(i);
+        }
+
+        // One job per shard, so a large batch takes a single queue slot on each shard
+        Object[] results = new Object[items.size()];
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+        for (int shard = 0; shard < shards.length; shard++) {
+            List<Integer> mine = positions.get(shard);
+            if (!mine.isEmpty()) {
+                jobs.add(submit(shard, () -> {
+                    mine.forEach(i -> results[i] = task.apply(items.get(i)));
+                    return null;
+                }));
+            }
+        }
+        jobs.forEach(EvaluationShards::join);
+
+        @SuppressWarnings("unchecked")
+        List<R> ordered = (List<R>) Arrays.asList(results);
+        return ordered;
+    }
+
+    private int shardOf(String number) {
+        return Math.floorMod(number.hashCode(), shards.length);
+    }
+
+    private <T> CompletableFuture<T> submit(int index, Supplier<T> task) {
+        Shard shard = shards[index];
+        long queued = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long started = System.nanoTime();
+                shard.waiting().record(started - queued, TimeUnit.NANOSECONDS);
+                try {
+                    return task.get();
+                } finally {
+                    shard.execution().record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            }, shard.executor());
+        } catch (RejectedExecutionException e) {
+            throw new ServiceBusyException("Too many transactions waiting for evaluation, try again later");
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow what the task threw, so the exception handlers see the original exception
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        for (Shard shard : shards) {
+            shard.executor().shutdown();
+        }
+    }
+}
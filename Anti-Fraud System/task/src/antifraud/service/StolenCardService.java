@@ -1,45 +1,77 @@
 package antifraud.service;
 
 
+import antifraud.cache.CardBlacklist;
 import antifraud.entity.StolenCard;
 import antifraud.exception.EntityExistsException;
 import antifraud.exception.EntityNotFoundException;
+import antifraud.repository.BlacklistJdbcRepository;
 import antifraud.repository.StolenCardRepository;
+import antifraud.response.BulkImportResponse;
 import antifraud.response.StolenCardResponse;
+import antifraud.validation.Validators;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 @Service
 public class StolenCardService {
 
     private final StolenCardRepository stolenCardRepository;
+    private final BlacklistJdbcRepository blacklistJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int importBatchSize;
+    private final int importMaxValues;
+    private final CardBlacklist blacklist = new CardBlacklist();
+    // Held across the database write, so a lock rather than a monitor that would pin a virtual thread
+    private final ReentrantLock blacklistLock = new ReentrantLock();
+    // Until the warm-up has loaded the table, lookups go to the database
+    private volatile boolean loaded;
 
     @Autowired
-    public StolenCardService(StolenCardRepository stolenCardRepository) {
+    public StolenCardService(StolenCardRepository stolenCardRepository,
+                             BlacklistJdbcRepository blacklistJdbcRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${antifraud.blacklist.import.batch-size:1000}") int importBatchSize,
+                             @Value("${antifraud.blacklist.import.max-values:5000000}") int importMaxValues) {
         this.stolenCardRepository = stolenCardRepository;
+        this.blacklistJdbcRepository = blacklistJdbcRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.importBatchSize = importBatchSize;
+        this.importMaxValues = importMaxValues;
     }
 
-    public static boolean isValidCardNumber(String number) {
-        int nDigits = number.length();
-        int sum = 0;
-        boolean isSecond = false;
-        for (int i = nDigits - 1; i >= 0; i--) {
-            int d = number.charAt(i) - '0';
-            if (isSecond) d *= 2;
-            sum += d / 10;
-            sum += d % 10;
-            isSecond = !isSecond;
+    /**
+     * Replaces the in-memory copy with the table's contents.
+     *
+     * @return the number of blacklisted cards
+     */
+    public int loadBlacklist() {
+        blacklistLock.lock();
+        try {
+            blacklist.load(stolenCardRepository.findAllNumbers());
+            loaded = true;
+            return blacklist.size();
+        } finally {
+            blacklistLock.unlock();
         }
-        return (sum % 10 == 0);
     }
 
     public boolean isCardNumberBlacklisted(String number) {
-        // Implement card number blacklist check
+        // Served from memory once loaded, save and delete keep the copy in line with the table
+        return loaded ? blacklist.contains(number) : stolenCardRepository.existsByNumber(number);
+    }
 
-        return stolenCardRepository.existsByNumber(number);
+    public int blacklistSize() {
+        return blacklist.size();
     }
     // Save the new stolen card to the database
 
@@ -52,7 +84,13 @@ public class StolenCardService {
 
         StolenCard stolenCard = new StolenCard();
         stolenCard.setNumber(cardNumber);
-        stolenCardRepository.save(stolenCard);
+        blacklistLock.lock();
+        try {
+            stolenCardRepository.save(stolenCard);
+            blacklist.add(cardNumber);
+        } finally {
+            blacklistLock.unlock();
+        }
         return new StolenCardResponse(stolenCard.getId(), stolenCard.getNumber());
     }
 
@@ -64,12 +102,41 @@ public class StolenCardService {
         }
 
         // Delete the stolen card from the database
-        stolenCardRepository.delete(stolenCard.get());
+        blacklistLock.lock();
+        try {
+            stolenCardRepository.delete(stolenCard.get());
+            blacklist.remove(number);
+        } finally {
+            blacklistLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the valid card numbers of a CSV or NDJSON feed that are not blacklisted yet. The feed is
+     * read and de-duplicated in memory first, then inserted in JDBC batches within one transaction;
+     * lookups see the new numbers once the whole import has committed.
+     */
+    public BulkImportResponse importCards(InputStream body, BulkFormat format) throws IOException {
+        BlacklistFeed feed = new BlacklistFeed("number", Validators::isValidCardNumber, CardBlacklist::pack, importMaxValues)
+                .read(body, format);
+        blacklistLock.lock();
+        try {
+            long imported = transactionTemplate.execute(status -> {
+                long[] inserted = new long[1];
+                feed.forEachBatch(importBatchSize, CardBlacklist::unpack,
+                        batch -> inserted[0] += blacklistJdbcRepository.insertMissingStolenCards(batch));
+                return inserted[0];
+            });
+            blacklist.addAll(feed.keys(), feed.keyCount(), feed.others());
+            return feed.response(imported);
+        } finally {
+            blacklistLock.unlock();
+        }
     }
 
-    public List<StolenCard> findAll() {
-        // Retrieve all stolen cards sorted by ID in ascending order
-        return stolenCardRepository.findAllByOrderByIdAsc();
+    // Retrieve all stolen cards sorted by ID in ascending order, streamed from the table
+    public void forEachStolenCard(Consumer<StolenCardResponse> action) {
+        blacklistJdbcRepository.forEachStolenCard(action);
     }
 }
 
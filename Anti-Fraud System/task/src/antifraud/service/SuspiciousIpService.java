@@ -1,34 +1,72 @@
 package antifraud.service;
 
+import antifraud.cache.IpBlacklist;
 import antifraud.entity.SuspiciousIP;
 import antifraud.exception.EntityExistsException;
 import antifraud.exception.EntityNotFoundException;
+import antifraud.repository.BlacklistJdbcRepository;
 import antifraud.repository.SuspiciousIPRepository;
 import antifraud.request.SuspiciousIPRequest;
+import antifraud.response.BulkImportResponse;
 import antifraud.response.SuspiciousIPResponse;
+import antifraud.validation.Validators;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 @Service
 public class SuspiciousIpService {
 
     private final SuspiciousIPRepository suspiciousIpRepository;
+    private final BlacklistJdbcRepository blacklistJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int importBatchSize;
+    private final int importMaxValues;
+    private final IpBlacklist blacklist = new IpBlacklist();
+    // Keeps the table and the in-memory copy in step
+    private final ReentrantLock blacklistLock = new ReentrantLock();
+    // Until the warm-up has loaded the table, lookups go to the database
+    private volatile boolean loaded;
 
     @Autowired
-    public SuspiciousIpService(SuspiciousIPRepository suspiciousIpRepository) {
+    public SuspiciousIpService(SuspiciousIPRepository suspiciousIpRepository,
+                               BlacklistJdbcRepository blacklistJdbcRepository,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${antifraud.blacklist.import.batch-size:1000}") int importBatchSize,
+                               @Value("${antifraud.blacklist.import.max-values:5000000}") int importMaxValues) {
         this.suspiciousIpRepository = suspiciousIpRepository;
+        this.blacklistJdbcRepository = blacklistJdbcRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.importBatchSize = importBatchSize;
+        this.importMaxValues = importMaxValues;
     }
 
-    public static boolean isValidIPv4(String ip) {
-        String ipPattern = "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
-        return ip.matches(ipPattern);
+    /**
+     * Replaces the in-memory copy with the table's contents.
+     *
+     * @return the number of suspicious IPs
+     */
+    public int loadBlacklist() {
+        blacklistLock.lock();
+        try {
+            blacklist.load(suspiciousIpRepository.findAllIps());
+            loaded = true;
+            return blacklist.size();
+        } finally {
+            blacklistLock.unlock();
+        }
     }
 
     public SuspiciousIPResponse save(SuspiciousIPRequest request) {
-        if (!isValidIPv4(request.ip())) {
+        if (!Validators.isValidIPv4(request.ip())) {
             throw new IllegalArgumentException("Invalid IP Address");
         }
         // Check if the IP address is already in the database
@@ -36,14 +74,21 @@ public class SuspiciousIpService {
         if (suspiciousIpRepository.existsByIp(request.ip())) {
             throw new EntityExistsException("IP address is already in the database");
         }
-        SuspiciousIP savedIp = suspiciousIpRepository.save(new SuspiciousIP(request.ip()));
+        SuspiciousIP savedIp;
+        blacklistLock.lock();
+        try {
+            savedIp = suspiciousIpRepository.save(new SuspiciousIP(request.ip()));
+            blacklist.add(savedIp.getIp());
+        } finally {
+            blacklistLock.unlock();
+        }
         // Save the new suspicious IP to the database
         return new SuspiciousIPResponse(savedIp.getId(), savedIp.getIp());
     }
 
     public void deleteByIp(String ip) {
         // Check if the IP address exists in the database
-        if (!isValidIPv4(ip)) {
+        if (!Validators.isValidIPv4(ip)) {
             throw new IllegalArgumentException("Invalid IP Address");
         }
         Optional<SuspiciousIP> suspiciousIp = suspiciousIpRepository.findByIp(ip);
@@ -52,17 +97,50 @@ public class SuspiciousIpService {
         }
 
         // Delete the suspicious IP from the database
-        suspiciousIpRepository.delete(suspiciousIp.get());
+        blacklistLock.lock();
+        try {
+            suspiciousIpRepository.delete(suspiciousIp.get());
+            blacklist.remove(ip);
+        } finally {
+            blacklistLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the valid IPv4 addresses of a CSV or NDJSON feed that are not listed yet. The feed is read
+     * and de-duplicated in memory first, then inserted in JDBC batches within one transaction; lookups
+     * see the new addresses once the whole import has committed.
+     */
+    public BulkImportResponse importIps(InputStream body, BulkFormat format) throws IOException {
+        BlacklistFeed feed = new BlacklistFeed("ip", Validators::isValidIPv4, IpBlacklist::pack, importMaxValues)
+                .read(body, format);
+        blacklistLock.lock();
+        try {
+            long imported = transactionTemplate.execute(status -> {
+                long[] inserted = new long[1];
+                feed.forEachBatch(importBatchSize, IpBlacklist::unpack,
+                        batch -> inserted[0] += blacklistJdbcRepository.insertMissingSuspiciousIps(batch));
+                return inserted[0];
+            });
+            blacklist.addAll(feed.keys(), feed.keyCount(), feed.others());
+            return feed.response(imported);
+        } finally {
+            blacklistLock.unlock();
+        }
     }
 
-    public List<SuspiciousIP> findAll() {
-        // Retrieve all suspicious IPs sorted by ID in ascending order
-        return suspiciousIpRepository.findAllByOrderByIdAsc();
+    // Retrieve all suspicious IPs sorted by ID in ascending order, streamed from the table
+    public void forEachSuspiciousIp(Consumer<SuspiciousIPResponse> action) {
+        blacklistJdbcRepository.forEachSuspiciousIp(action);
     }
 
     public boolean isIpBlacklisted(String ip) {
-        // Implement IP blacklist check
-        return suspiciousIpRepository.existsByIp(ip);
+        // Served from memory once loaded, save and delete keep the copy in line with the table
+        return loaded ? blacklist.contains(ip) : suspiciousIpRepository.existsByIp(ip);
+    }
+
+    public int blacklistSize() {
+        return blacklist.size();
     }
 
 
@@ -1,290 +1,357 @@
 package antifraud.service;
 
-import antifraud.entity.FraudLimits;
+import antifraud.cache.FraudLimitsHolder;
+import antifraud.cache.FraudLimitsHolder.Limits;
+import antifraud.cache.PackedTransaction;
+import antifraud.cache.VelocityIndex;
+import antifraud.cache.VelocityIndex.Correlation;
 import antifraud.entity.Transaction;
 import antifraud.exception.*;
+import antifraud.entity.CardStatistics;
+import antifraud.entity.Region;
+import antifraud.entity.Result;
+import antifraud.persistence.CardStatisticsWriter;
+import antifraud.persistence.TransactionWriter;
 import antifraud.repository.*;
 import antifraud.request.TransactionRequest;
+import antifraud.response.CardSummaryResponse;
 import antifraud.response.TransactionResponse;
-import antifraud.user.User;
+import antifraud.rules.RuleEngine;
+import antifraud.rules.RuleEngine.Decision;
+import antifraud.user.AuthenticatedUser;
+import antifraud.validation.Validators;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
-
+import java.util.function.Consumer;
+
+/**
+ * Evaluates transactions and applies feedback.
+ * <p>
+ * A single transaction is timed per stage under {@code antifraud.transaction.stage} (tag {@code stage}):
+ * validation, user, decision (including the wait for the card's shard) and persistence. The blacklist
+ * and history parts of the decision are timed by {@link RuleEngine}. Feedback is counted under
+ * {@code antifraud.feedback} (tags {@code feedback} and {@code result}); each pair of the two moves the
+ * limits in one fixed way.
+ */
 @Service
 public class TransactionService {
 
-    private final UserRepository userRepository;
-    private final StolenCardRepository stolenCardRepository;
-    private final SuspiciousIPRepository suspiciousIPRepository;
     private final TransactionRepository transactionRepository;
-    private final FraudLimitsRepository fraudLimitsRepository;
+    private final FraudLimitsHolder fraudLimitsHolder;
+    private final VelocityIndex velocityIndex;
+    private final TransactionWriter transactionWriter;
+    private final CardStatisticsWriter cardStatisticsWriter;
+    private final CardStatisticsRepository cardStatisticsRepository;
+    private final RuleEngine ruleEngine;
+    private final TransactionHistoryReader transactionHistoryReader;
+    private final EvaluationShards evaluationShards;
+    private final int maxBatchSize;
+    private final int maxHistoryPageSize;
+    private final Timer validationTimer;
+    private final Timer userTimer;
+    private final Timer decisionTimer;
+    private final Timer persistenceTimer;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
-    public TransactionService(UserRepository userRepository,
-                              StolenCardRepository stolenCardRepository,
-                              SuspiciousIPRepository suspiciousIPRepository,
-                              TransactionRepository transactionRepository,
-                              FraudLimitsRepository fraudLimitsRepository) {
-        this.userRepository = userRepository;
-        this.stolenCardRepository = stolenCardRepository;
-        this.suspiciousIPRepository = suspiciousIPRepository;
+    public TransactionService(TransactionRepository transactionRepository,
+                              FraudLimitsHolder fraudLimitsHolder,
+                              VelocityIndex velocityIndex,
+                              TransactionWriter transactionWriter,
+                              CardStatisticsWriter cardStatisticsWriter,
+                              CardStatisticsRepository cardStatisticsRepository,
+                              RuleEngine ruleEngine,
+                              TransactionHistoryReader transactionHistoryReader,
+                              EvaluationShards evaluationShards,
+                              MeterRegistry meterRegistry,
+                              @Value("${antifraud.batch.max-size:10000}") int maxBatchSize,
+                              @Value("${antifraud.history.max-page-size:1000}") int maxHistoryPageSize) {
         this.transactionRepository = transactionRepository;
-        this.fraudLimitsRepository = fraudLimitsRepository;
-        initializeLimits();
+        this.fraudLimitsHolder = fraudLimitsHolder;
+        this.velocityIndex = velocityIndex;
+        this.transactionWriter = transactionWriter;
+        this.cardStatisticsWriter = cardStatisticsWriter;
+        this.cardStatisticsRepository = cardStatisticsRepository;
+        this.ruleEngine = ruleEngine;
+        this.transactionHistoryReader = transactionHistoryReader;
+        this.evaluationShards = evaluationShards;
+        this.maxBatchSize = maxBatchSize;
+        this.maxHistoryPageSize = maxHistoryPageSize;
+        this.validationTimer = stageTimer(meterRegistry, "validation");
+        this.userTimer = stageTimer(meterRegistry, "user");
+        this.decisionTimer = stageTimer(meterRegistry, "decision");
+        this.persistenceTimer = stageTimer(meterRegistry, "persistence");
+        this.meterRegistry = meterRegistry;
     }
 
-    private void initializeLimits() {
-        if (fraudLimitsRepository.count() == 0) {
-            fraudLimitsRepository.findById(1L).orElseGet(() -> {
-                FraudLimits newLimits = new FraudLimits();
-                newLimits.setMaxAllowed(200L);
-                newLimits.setMaxManualProcessing(1500L);
-                return fraudLimitsRepository.save(newLimits);
-            });
-        }
+    private static Timer stageTimer(MeterRegistry meterRegistry, String stage) {
+        return Timer.builder("antifraud.transaction.stage").tag("stage", stage).register(meterRegistry);
     }
 
-    public TransactionResponse evaluateTransaction(String username, TransactionRequest request) {
-        FraudLimits limits = getFraudLimits();
-        Long maxAllowed = limits.getMaxAllowed();
-        Long maxManualProcessing = limits.getMaxManualProcessing();
-        // Validate input
-        if (request.amount() <= 0 || request.ip().isEmpty() || request.number().isEmpty() || !isValidRegion(request.region())) {
-            throw new IllegalArgumentException("Invalid transaction data");
-        }
-
-        // Fetch the user and check if they are locked
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UserNotFoundException("User not found"));
-
-        if (user.isLocked()) {
-            throw new LockedUserException("User is locked");
-        }
-
-        // Proceed with transaction evaluation
-        Set<String> reasons = new TreeSet<>();
-
-        // Check blacklists
-        if (suspiciousIPRepository.existsByIp(request.ip())) {
-            reasons.add("ip");
-        }
-        if (stolenCardRepository.existsByNumber(request.number())) {
-            reasons.add("card-number");
-        }
+    public TransactionResponse evaluateTransaction(AuthenticatedUser user, TransactionRequest request) {
+        validationTimer.record(() -> validateTransaction(request));
+        userTimer.record(() -> checkUserCanTransact(user));
+        Evaluation evaluation = decisionTimer.record(() -> evaluationShards.run(request.number(), () -> decide(request)));
+        return persistenceTimer.record(() -> save(evaluation));
+    }
 
-        // Check amount thresholds
-        if (request.amount() > maxManualProcessing) {
-            reasons.add("amount");
-        } else if (request.amount() > maxAllowed && reasons.isEmpty()) {
-            reasons.add("amount");
+    // Items of a card are decided in order, so each one sees the card's earlier items exactly as if they had been
+    // sent one by one; different cards are decided in parallel. The items are then saved together, in order, and
+    // with sequence ids the inserts are only flushed, in JDBC batches, when the transaction commits.
+    @Transactional
+    public List<TransactionResponse> evaluateTransactions(AuthenticatedUser user, List<TransactionRequest> requests) {
+        if (requests.isEmpty() || requests.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch must contain between 1 and " + maxBatchSize + " transactions");
         }
-
-        // Check transaction history for correlation rules
-        LocalDateTime oneHourAgo = request.date().minusHours(1);
-        List<Transaction> recentTransactions = transactionRepository.findAllByNumberAndDateAfter(request.number(), oneHourAgo)
-                .stream()
-                .filter(transaction -> !transaction.getDate().isAfter(request.date()))
+        requests.forEach(this::validateTransaction);
+        checkUserCanTransact(user);
+
+        List<Evaluation> evaluations = evaluationShards.runAll(requests, TransactionRequest::number, this::decide);
+        List<Transaction> transactions = evaluations.stream().map(Evaluation::transaction).toList();
+        persist(transactions, () -> transactionWriter.persistAll(transactions));
+        return evaluations.stream()
+                .map(evaluation -> new TransactionResponse(evaluation.transaction().getResult(), evaluation.info()))
                 .toList();
+    }
 
-        long regionCount = recentTransactions.stream()
-                .map(Transaction::getRegion)
-                .filter(region -> !region.equals(request.region()))
-                .distinct()
-                .count();
-
-        long ipCount = recentTransactions.stream()
-                .map(Transaction::getIp)
-                .filter(ip -> !ip.equals(request.ip()))
-                .distinct()
-                .count();
-
-        if (regionCount > 2) {
-            reasons.add("region-correlation");
-        } else if (regionCount == 2) {
-            reasons.add("region-correlation");
+    // The storage may reject more, the mapped log only holds valid card numbers and IPv4 addresses
+    private void validateTransaction(TransactionRequest request) {
+        if (request.amount() <= 0 || request.ip().isEmpty() || request.number().isEmpty() || !Validators.isValidRegion(request.region())
+                || !transactionRepository.canStore(request.number(), request.ip(), request.date())) {
+            throw new IllegalArgumentException("Invalid transaction data");
         }
+    }
 
-        if (ipCount > 2) {
-            reasons.add("ip-correlation");
-        } else if (ipCount == 2) {
-            reasons.add("ip-correlation");
+    private void checkUserCanTransact(AuthenticatedUser user) {
+        // The principal was loaded during authentication, the lock state comes with it
+        if (user == null) {
+            throw new UserNotFoundException("User not found");
         }
-
-        // Determine the result
-        String result;
-        if (reasons.isEmpty()) {
-            result = "ALLOWED";
-        } else if (request.amount() <= maxManualProcessing && (
-                (reasons.contains("region-correlation") && regionCount == 2) ||
-                        (reasons.contains("ip-correlation") && ipCount == 2) ||
-                        (reasons.contains("amount") && reasons.size() == 1))) {
-            result = "MANUAL_PROCESSING";
-        } else {
-            result = "PROHIBITED";
+        if (user.isLocked()) {
+            throw new LockedUserException("User is locked");
         }
+    }
+
+    private record Evaluation(Transaction transaction, String info) {
+    }
 
-        String info = reasons.isEmpty() ? "none" : String.join(", ", reasons);
+    // Runs on the card's shard: the card's next transaction is only decided after this one is in the index
+    private Evaluation decide(TransactionRequest request) {
+        // null if a field has no packed form, such a transaction is correlated through the database
+        PackedTransaction packed = PackedTransaction.of(request.number(), request.date(), request.region(), request.ip());
+        Decision decision = ruleEngine.evaluate(request, fraudLimitsHolder.get(), () -> correlate(request, packed));
 
-        // Save the transaction
         Transaction transaction = new Transaction();
         transaction.setAmount(request.amount());
         transaction.setIp(request.ip());
         transaction.setNumber(request.number());
         transaction.setRegion(request.region());
         transaction.setDate(request.date());
-        transaction.setResult(result);
+        transaction.setResult(decision.result());
         transaction.setFeedback(null);
-        transactionRepository.save(transaction);
+        // The index sees the transaction right away, so the card's next one is decided with it; persist() takes it
+        // back out if it is not stored after all
+        if (packed != null) {
+            velocityIndex.record(packed);
+        } else {
+            velocityIndex.record(transaction);
+        }
 
-        return new TransactionResponse(result, info);
+        return new Evaluation(transaction, decision.info());
     }
 
+    private TransactionResponse save(Evaluation evaluation) {
+        Transaction transaction = evaluation.transaction();
+        persist(List.of(transaction), () -> transactionWriter.persist(transaction));
+        return new TransactionResponse(transaction.getResult(), evaluation.info());
+    }
 
-    private FraudLimits getFraudLimits() {
-        return fraudLimitsRepository.findById(1L).orElseThrow(() ->
-                new EntityNotFoundException("Fraud limits not found"));
+    // Removes the transactions from the velocity index again unless they are stored: when the surrounding
+    // database transaction does not commit, or without one when the write throws
+    private void persist(List<Transaction> transactions, Runnable write) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        transactions.forEach(velocityIndex::remove);
+                    }
+                }
+            });
+            write.run();
+            return;
+        }
+        try {
+            write.run();
+        } catch (RuntimeException e) {
+            transactions.forEach(velocityIndex::remove);
+            throw e;
+        }
+    }
+
+    private Correlation correlate(TransactionRequest request, PackedTransaction packed) {
+        Correlation correlation = packed == null ? null : velocityIndex.correlate(packed);
+        if (correlation != null) {
+            return correlation;
+        }
+
+        // The window is older than what the index keeps, read it from the database
+        LocalDateTime oneHourAgo = request.date().minus(VelocityIndex.WINDOW);
+        Set<String> regions = new HashSet<>();
+        Set<String> ips = new HashSet<>();
+        transactionWriter.collectPending(request.number(), oneHourAgo, request.date(), regions, ips);
+        for (RegionAndIp row : transactionRepository.findRegionsAndIps(request.number(), oneHourAgo, request.date())) {
+            regions.add(row.getRegion());
+            ips.add(row.getIp());
+        }
+        velocityIndex.collect(request.number(), request.date(), regions, ips);
+        regions.remove(request.region());
+        ips.remove(request.ip());
+        return new Correlation(regions.size(), ips.size());
     }
 
 
     @Transactional
-    public TransactionResponse addFeedback(Long transactionId, String feedback) {
+    public TransactionResponse addFeedback(Long transactionId, String feedbackName) {
         Transaction transaction = transactionRepository.findById(transactionId)
                 .orElseThrow(() -> new EntityNotFoundException("Transaction not found"));
 
+        Result feedback = Result.parse(feedbackName);
         validateFeedback(feedback, transaction);
 
-        updateLimitsBasedOnFeedback(feedback, transaction.getResult(), transaction.getAmount());
+        Result result = transaction.getResult();
+        long amount = transaction.getAmount();
+        fraudLimitsHolder.update(limits -> updateLimitsBasedOnFeedback(limits, feedback, result, amount));
+        Counter.builder("antifraud.feedback")
+                .tag("feedback", feedback.name())
+                .tag("result", result.name())
+                .register(meterRegistry)
+                .increment();
 
         transaction.setFeedback(feedback);
         transactionRepository.save(transaction);
+        cardStatisticsWriter.recordFeedback(transaction);
 
         // Return the updated transaction with result included
         return new TransactionResponse(transaction);
     }
 
-    public List<TransactionResponse> getTransactionHistory() {
-        return transactionRepository.findAllByOrderByIdAsc().stream()
-                .map(TransactionResponse::new)
-                .collect(Collectors.toList());
+    /**
+     * Rejects a history request before any of the response is written.
+     *
+     * @param number the card number, or {@code null} for the history of all cards
+     */
+    public void checkTransactionHistory(String number, Integer limit) {
+        if (limit != null && (limit < 1 || limit > maxHistoryPageSize)) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + maxHistoryPageSize);
+        }
+        if (number == null) {
+            return;
+        }
+        if (!Validators.isValidCardNumber(number)) {
+            throw new IllegalArgumentException("Invalid card number format");
+        }
+        if (!transactionHistoryReader.existsByNumber(number)) {
+            throw new EntityNotFoundException("No transactions found for this card number");
+        }
     }
 
-    public List<TransactionResponse> getTransactionHistoryByNumber(String number) {
-        if (!isValidCardNumber(number)) {
+    /**
+     * A card's totals, read from its {@link CardStatistics} row rather than from its transactions.
+     *
+     * @throws ServiceBusyException while the statistics are being rebuilt
+     */
+    public CardSummaryResponse summarize(String number) {
+        if (!Validators.isValidCardNumber(number)) {
             throw new IllegalArgumentException("Invalid card number format");
         }
+        // The totals are partial until the warm-up has rebuilt them
+        if (cardStatisticsWriter.isRebuilding()) {
+            throw new ServiceBusyException("Card statistics are being rebuilt, try again later");
+        }
+        CardStatistics statistics = cardStatisticsRepository.findById(number)
+                .orElseThrow(() -> new EntityNotFoundException("No transactions found for this card number"));
 
-        List<Transaction> transactions = transactionRepository.findAllByNumberOrderByIdAsc(number);
-        if (transactions.isEmpty()) {
-            throw new EntityNotFoundException("No transactions found for this card number");
+        List<String> regions = new ArrayList<>();
+        for (Region region : Region.values()) {
+            if ((statistics.getRegions() & 1 << region.code()) != 0) {
+                regions.add(region.name());
+            }
         }
+        Map<String, Long> results = new LinkedHashMap<>();
+        results.put("ALLOWED", statistics.getAllowed());
+        results.put("MANUAL_PROCESSING", statistics.getManualProcessing());
+        results.put("PROHIBITED", statistics.getProhibited());
+        Map<String, Long> feedback = new LinkedHashMap<>();
+        feedback.put("ALLOWED", statistics.getAllowedFeedback());
+        feedback.put("MANUAL_PROCESSING", statistics.getManualProcessingFeedback());
+        feedback.put("PROHIBITED", statistics.getProhibitedFeedback());
+
+        return new CardSummaryResponse(number, statistics.getTransactions(), statistics.getTotalAmount(),
+                statistics.getMinAmount(), statistics.getMaxAmount(), statistics.getLastSeen(), regions,
+                results, feedback, statistics.getDistinctIps());
+    }
 
-        return transactions.stream()
-                .map(TransactionResponse::new)
-                .collect(Collectors.toList());
+    // Rows are handed over as they are read, so memory use does not depend on the size of the history
+    public void forEachTransaction(String number, long afterId, Integer limit, Consumer<TransactionResponse> action) {
+        transactionHistoryReader.forEach(number, afterId, limit, action);
     }
 
-    private void validateFeedback(String feedback, Transaction transaction) {
-        if (!List.of("ALLOWED", "MANUAL_PROCESSING", "PROHIBITED").contains(feedback)) {
+    private void validateFeedback(Result feedback, Transaction transaction) {
+        if (feedback == null) {
             throw new IllegalArgumentException("Invalid feedback format");
         }
         if (transaction.getFeedback() != null) {
             throw new EntityExistsException("Feedback already exists for this transaction");
         }
-        String result = transaction.getResult();
-        if (result == null) {
+        if (transaction.getResult() == null) {
             throw new UnprocessableEntityException("Transaction result is null");
         }
 
-        if ((transaction.getResult().equals("ALLOWED") && feedback.equals("ALLOWED")) ||
-                (transaction.getResult().equals("MANUAL_PROCESSING") && feedback.equals("MANUAL_PROCESSING")) ||
-                (transaction.getResult().equals("PROHIBITED") && feedback.equals("PROHIBITED"))) {
+        if (transaction.getResult() == feedback) {
             throw new UnprocessableEntityException("Invalid feedback according to the table");
         }
     }
 
-    private void updateLimitsBasedOnFeedback(String feedback, String result, Long amount) {
-        FraudLimits limits = fraudLimitsRepository.findById(1L).orElseThrow(() ->
-                new EntityNotFoundException("Fraud limits not found"));
+    private static Limits updateLimitsBasedOnFeedback(Limits limits, Result feedback, Result result, long amount) {
+        long maxAllowed = limits.maxAllowed();
+        long maxManualProcessing = limits.maxManualProcessing();
 
-        Long maxAllowed = limits.getMaxAllowed();
-        Long maxManualProcessing = limits.getMaxManualProcessing();
-
-        if (feedback.equals("ALLOWED")) {
-            if (result.equals("MANUAL_PROCESSING")) {
+        if (feedback == Result.ALLOWED) {
+            if (result == Result.MANUAL_PROCESSING) {
                 maxAllowed = (long) Math.ceil(0.8 * maxAllowed + 0.2 * amount);
-            } else if (result.equals("PROHIBITED")) {
+            } else if (result == Result.PROHIBITED) {
                 maxAllowed = (long) Math.ceil(0.8 * maxAllowed + 0.2 * amount);
                 maxManualProcessing = (long) Math.ceil(0.8 * maxManualProcessing + 0.2 * amount);
             }
-        } else if (feedback.equals("MANUAL_PROCESSING") && result.equals("PROHIBITED")) {
+        } else if (feedback == Result.MANUAL_PROCESSING && result == Result.PROHIBITED) {
             maxManualProcessing = (long) Math.ceil(0.8 * maxManualProcessing + 0.2 * amount);
-        } else if (feedback.equals("MANUAL_PROCESSING") && result.equals("ALLOWED")) {
+        } else if (feedback == Result.MANUAL_PROCESSING && result == Result.ALLOWED) {
             maxAllowed = (long) Math.ceil(0.8 * maxAllowed - 0.2 * amount);
-        } else if (feedback.equals("PROHIBITED")) {
-            if (result.equals("ALLOWED")) {
+        } else if (feedback == Result.PROHIBITED) {
+            if (result == Result.ALLOWED) {
                 maxAllowed = (long) Math.ceil(0.8 * maxAllowed - 0.2 * amount);
                 maxManualProcessing = (long) Math.ceil(0.8 * maxManualProcessing - 0.2 * amount);
-            } else if (result.equals("MANUAL_PROCESSING")) {
+            } else if (result == Result.MANUAL_PROCESSING) {
                 maxManualProcessing = (long) Math.ceil(0.8 * maxManualProcessing - 0.2 * amount);
             }
         }
 
-        limits.setMaxAllowed(maxAllowed);
-        limits.setMaxManualProcessing(maxManualProcessing);
-        fraudLimitsRepository.save(limits);
-    }
-
-    private boolean isValidCardNumber(String number) {
-        // Remove any non-numeric characters
-        String cleanedNumber = number.replaceAll("[^0-9]", "");
-
-        // Check if the cleaned number is empty or not numeric
-        if (cleanedNumber.isEmpty() || !cleanedNumber.matches("\\d+")) {
-            return false;
-        }
-
-        // Check the length of the card number
-        int length = cleanedNumber.length();
-        if (length < 13 || length > 19) {
-            return false;
-        }
-
-        // Validate using the Luhn algorithm
-        return isLuhnValid(cleanedNumber);
-    }
-
-    private boolean isLuhnValid(String number) {
-        int sum = 0;
-        boolean alternate = false;
-
-        // Traverse the number from right to left
-        for (int i = number.length() - 1; i >= 0; i--) {
-            int n = Character.getNumericValue(number.charAt(i));
-
-            if (alternate) {
-                n *= 2;
-                if (n > 9) {
-                    n -= 9;
-                }
-            }
-
-            sum += n;
-            alternate = !alternate;
-        }
-
-        // Valid if the sum is a multiple of 10
-        return (sum % 10 == 0);
-    }
-
-    private boolean isValidRegion(String region) {
-        // Check if region is one of the allowed codes
-        return List.of("EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA").contains(region);
+        return new Limits(maxAllowed, maxManualProcessing);
     }
 }
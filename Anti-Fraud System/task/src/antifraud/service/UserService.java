@@ -7,6 +7,8 @@ import antifraud.repository.UserRepository;
 import antifraud.request.UserRequest;
 import antifraud.response.ChangeRoleResponse;
 import antifraud.response.UserResponse;
+import antifraud.security.AuthenticationCache;
+import antifraud.user.AuthenticatedUser;
 import antifraud.user.Role;
 import antifraud.user.User;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,11 +27,13 @@ public class UserService implements UserDetailsService {
 
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final AuthenticationCache authenticationCache;
 
     @Autowired
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder, AuthenticationCache authenticationCache) {
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.authenticationCache = authenticationCache;
     }
 
     public UserResponse registerUser(UserRequest userRequest) {
@@ -70,6 +74,7 @@ public class UserService implements UserDetailsService {
                 .orElseThrow(() -> new UserNotFoundException("User not found"));
 
         userRepository.delete(user);
+        authenticationCache.invalidate(username);
     }
 
     // New method to change user role
@@ -88,6 +93,7 @@ public class UserService implements UserDetailsService {
 
         user.setRole(role);
         userRepository.save(user);
+        authenticationCache.invalidate(username);
 
         return new ChangeRoleResponse(user.getId(), user.getName(), user.getUsername(), user.getRole().name());
     }
@@ -110,6 +116,7 @@ public class UserService implements UserDetailsService {
         }
 
         userRepository.save(user);
+        authenticationCache.invalidate(username);
     }
 
     @Override
@@ -117,11 +124,7 @@ public class UserService implements UserDetailsService {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found with username: " + username));
 
-        return new org.springframework.security.core.userdetails.User(
-                user.getUsername(),
-                user.getPassword(),
-                user.getAuthorities()
-        );
+        return new AuthenticatedUser(user);
     }
 
 
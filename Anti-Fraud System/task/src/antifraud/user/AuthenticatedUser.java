@@ -0,0 +1,26 @@
+package antifraud.user;
+
+/**
+ * Principal built by {@code UserService.loadUserByUsername}. Carries the role and lock state read
+ * with the user, so request handling does not have to load the user again.
+ */
+public class AuthenticatedUser extends org.springframework.security.core.userdetails.User {
+
+    private final Role role;
+    private final boolean locked;
+
+    public AuthenticatedUser(User user) {
+        super(user.getUsername(), user.getPassword(), user.getAuthorities());
+        this.role = user.getRole();
+        this.locked = user.isLocked();
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    // Locked users can still authenticate, they are refused when they try to make transactions
+    public boolean isLocked() {
+        return locked;
+    }
+}
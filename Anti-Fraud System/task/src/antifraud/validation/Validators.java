@@ -0,0 +1,154 @@
+package antifraud.validation;
+
+import antifraud.entity.Region;
+
+import java.time.LocalDateTime;
+
+/**
+ * Request validation shared by the services and controllers. Each check is a single pass over
+ * the input that allocates nothing, so it is cheap enough to run on every request.
+ */
+public final class Validators {
+
+    public static final long INVALID_IP = -1;
+    public static final long INVALID_CARD_NUMBER = -1;
+
+    // CARD_BASE[n] is the first packed value used for n-digit strings, so leading zeros stay significant.
+    // 19-digit numbers run past Long.MAX_VALUE and wrap around, which keeps them distinct: the packed
+    // range ends well before 2^64 - 1 (INVALID_CARD_NUMBER).
+    private static final long[] CARD_BASE = new long[20];
+
+    static {
+        long base = 1;
+        long span = 1;
+        for (int digits = 0; digits < CARD_BASE.length; digits++) {
+            CARD_BASE[digits] = base;
+            base += span;
+            span *= 10;
+        }
+    }
+
+    private static final LocalDateTime MIN_DATE = LocalDateTime.of(-290_000, 1, 1, 0, 0);
+    private static final LocalDateTime MAX_DATE = LocalDateTime.of(290_000, 1, 1, 0, 0);
+
+    private Validators() {
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address of four decimal octets (0-255, at most three digits each).
+     *
+     * @param canonical whether to reject octets with leading zeros, which other spellings of the same
+     *                  address have
+     * @return the address packed into the low 32 bits, or {@link #INVALID_IP}
+     */
+    public static long parseIPv4(String ip, boolean canonical) {
+        if (ip == null || ip.length() < 7 || ip.length() > 15) {
+            return INVALID_IP;
+        }
+        long packed = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 3 || canonical && digits > 1 && octet == 0) {
+                    return INVALID_IP;
+                }
+                octet = octet * 10 + (c - '0');
+            } else if (c == '.') {
+                if (digits == 0 || octet > 255 || ++dots > 3) {
+                    return INVALID_IP;
+                }
+                packed = packed << 8 | octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return INVALID_IP;
+            }
+        }
+        if (dots != 3 || digits == 0 || octet > 255) {
+            return INVALID_IP;
+        }
+        return packed << 8 | octet;
+    }
+
+    public static boolean isValidIPv4(String ip) {
+        return parseIPv4(ip, false) != INVALID_IP;
+    }
+
+    /**
+     * Maps every digit string of 1 to 19 digits to a distinct long. Up to 18 digits the values are
+     * positive; this does not check that the number is a valid card number.
+     *
+     * @return the packed number, or {@link #INVALID_CARD_NUMBER}
+     */
+    public static long packCardNumber(String number) {
+        if (number == null || number.isEmpty() || number.length() >= CARD_BASE.length) {
+            return INVALID_CARD_NUMBER;
+        }
+        long value = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID_CARD_NUMBER;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return CARD_BASE[number.length()] + value;
+    }
+
+    /**
+     * Reverses {@link #packCardNumber}, including any leading zeros.
+     */
+    public static String unpackCardNumber(long packed) {
+        int digits = CARD_BASE.length - 1;
+        while (digits > 0 && Long.compareUnsigned(packed, CARD_BASE[digits]) < 0) {
+            digits--;
+        }
+        StringBuilder number = new StringBuilder(digits).append(Long.toUnsignedString(packed - CARD_BASE[digits]));
+        while (number.length() < digits) {
+            number.insert(0, '0');
+        }
+        return number.toString();
+    }
+
+    /**
+     * Checks that the number has 13 to 19 digits and nothing else, and passes the Luhn check.
+     */
+    public static boolean isValidCardNumber(String number) {
+        if (number == null || number.length() < 13 || number.length() > 19) {
+            return false;
+        }
+        int sum = 0;
+        boolean second = false;
+        // Luhn runs from the check digit leftwards, doubling every second digit
+        for (int i = number.length() - 1; i >= 0; i--) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            if (second) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            second = !second;
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * Checks that the date is set and within about 290,000 years of 1970, so its microseconds since the
+     * epoch fit in a long.
+     */
+    public static boolean isValidDate(LocalDateTime date) {
+        return date != null && date.isAfter(MIN_DATE) && date.isBefore(MAX_DATE);
+    }
+
+    public static boolean isValidRegion(String region) {
+        return Region.parse(region) != null;
+    }
+}
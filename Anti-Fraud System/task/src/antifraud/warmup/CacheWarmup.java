@@ -0,0 +1,135 @@
+package antifraud.warmup;
+
+import antifraud.cache.FraudLimitsHolder;
+import antifraud.cache.VelocityIndex;
+import antifraud.persistence.CardStatisticsWriter;
+import antifraud.service.StolenCardService;
+import antifraud.service.SuspiciousIpService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Loads the in-memory state of a new instance once it has started: the fraud limits, both blacklists
+ * and the retained history behind the velocity index, and rebuilds the card statistics if they are
+ * out of date. Until every step is done the instance is not
+ * ready ({@link CacheWarmupHealthIndicator}) and the caches answer from the database. A failed step is
+ * retried after {@code antifraud.warmup.retry-interval}.
+ */
+@Component
+public class CacheWarmup {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmup.class);
+
+    public enum State {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    public record StepProgress(String step, State state, long loaded, long millis, String error) {
+    }
+
+    public record Progress(boolean warm, List<StepProgress> steps) {
+    }
+
+    private final List<Step> steps;
+    private final Duration retryInterval;
+    private volatile boolean warm;
+
+    private static final class Step {
+        private final String name;
+        private final Consumer<AtomicLong> action;
+        private final AtomicLong loaded = new AtomicLong();
+        private volatile State state = State.PENDING;
+        private volatile long startedAt;
+        private volatile long millis;
+        private volatile String error;
+
+        Step(String name, Consumer<AtomicLong> action) {
+            this.name = name;
+            this.action = action;
+        }
+
+        StepProgress progress() {
+            long elapsed = state == State.RUNNING ? (System.nanoTime() - startedAt) / 1_000_000 : millis;
+            return new StepProgress(name, state, loaded.get(), elapsed, error);
+        }
+    }
+
+    @Autowired
+    public CacheWarmup(FraudLimitsHolder fraudLimitsHolder,
+                       StolenCardService stolenCardService,
+                       SuspiciousIpService suspiciousIpService,
+                       VelocityIndex velocityIndex,
+                       CardStatisticsWriter cardStatisticsWriter,
+                       @Value("${antifraud.warmup.retry-interval:PT5S}") Duration retryInterval) {
+        this.steps = List.of(
+                new Step("fraud-limits", loaded -> {
+                    fraudLimitsHolder.get();
+                    loaded.set(1);
+                }),
+                new Step("stolen-cards", loaded -> loaded.set(stolenCardService.loadBlacklist())),
+                new Step("suspicious-ips", loaded -> loaded.set(suspiciousIpService.loadBlacklist())),
+                new Step("velocity-index", velocityIndex::rebuild),
+                new Step("card-statistics", cardStatisticsWriter::rebuild));
+        this.retryInterval = retryInterval;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread thread = new Thread(this::run, "cache-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public Progress progress() {
+        return new Progress(warm, steps.stream().map(Step::progress).toList());
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        for (Step step : steps) {
+            while (!runStep(step)) {
+                try {
+                    Thread.sleep(retryInterval.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        warm = true;
+        log.info("Cache warm-up finished in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private boolean runStep(Step step) {
+        step.loaded.set(0);
+        step.error = null;
+        step.startedAt = System.nanoTime();
+        step.state = State.RUNNING;
+        try {
+            step.action.accept(step.loaded);
+            step.millis = (System.nanoTime() - step.startedAt) / 1_000_000;
+            step.state = State.DONE;
+            return true;
+        } catch (RuntimeException e) {
+            step.millis = (System.nanoTime() - step.startedAt) / 1_000_000;
+            step.error = e.getMessage();
+            step.state = State.FAILED;
+            log.warn("Cache warm-up step {} failed, retrying in {}", step.name, retryInterval, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package antifraud.warmup;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code GET /actuator/warmup}: the state of each warm-up step and how many entries it has loaded.
+ */
+@Component
+@Endpoint(id = "warmup")
+public class CacheWarmupEndpoint {
+
+    private final CacheWarmup cacheWarmup;
+
+    @Autowired
+    public CacheWarmupEndpoint(CacheWarmup cacheWarmup) {
+        this.cacheWarmup = cacheWarmup;
+    }
+
+    @ReadOperation
+    public CacheWarmup.Progress warmup() {
+        return cacheWarmup.progress();
+    }
+}
@@ -0,0 +1,29 @@
+package antifraud.warmup;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * OUT_OF_SERVICE until the cache warm-up is done. Part of the readiness group, so a load balancer
+ * probing {@code /actuator/health/readiness} only sends traffic to warm instances.
+ */
+@Component
+public class CacheWarmupHealthIndicator implements HealthIndicator {
+
+    private final CacheWarmup cacheWarmup;
+
+    @Autowired
+    public CacheWarmupHealthIndicator(CacheWarmup cacheWarmup) {
+        this.cacheWarmup = cacheWarmup;
+    }
+
+    @Override
+    public Health health() {
+        CacheWarmup.Progress progress = cacheWarmup.progress();
+        return (progress.warm() ? Health.up() : Health.outOfService())
+                .withDetail("steps", progress.steps())
+                .build();
+    }
+}
@@ -0,0 +1,129 @@
+package antifraud.persistence;
+
+import antifraud.entity.CardStatistics;
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+import antifraud.repository.CardStatisticsRepository;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Feedback given while the statistics are rebuilt is counted once, whether the rebuild reads the row
+ * before or after the feedback is saved.
+ */
+class CardStatisticsWriterTest {
+
+    private static final String CARD = "4000008449433403";
+
+    private final Map<String, CardStatistics> table = new HashMap<>();
+    private final CardStatisticsRepository cardStatisticsRepository = mock(CardStatisticsRepository.class);
+    private final TransactionHistoryReader historyReader = mock(TransactionHistoryReader.class);
+    private CardStatisticsWriter writer;
+
+    @BeforeEach
+    void startRebuilding() {
+        when(cardStatisticsRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(table.get(invocation.<String>getArgument(0))));
+        when(cardStatisticsRepository.save(any())).thenAnswer(invocation -> {
+            CardStatistics statistics = invocation.getArgument(0);
+            table.put(statistics.getNumber(), statistics);
+            return statistics;
+        });
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        when(transactionRepository.count()).thenReturn(1L);
+        when(transactionRepository.findMaxId()).thenReturn(1L);
+        TransactionArchive archive = mock(TransactionArchive.class);
+        when(archive.countedInStatistics()).thenReturn(new TransactionArchive.Counts(0, 0));
+        when(archive.readablePartitions()).thenReturn(List.of());
+
+        writer = new CardStatisticsWriter(cardStatisticsRepository, transactionRepository, historyReader, archive,
+                mock(PlatformTransactionManager.class));
+        // The statistics table is empty, so they do not match the one saved transaction
+        writer.checkTotals();
+        assertTrue(writer.isRebuilding());
+    }
+
+    @Test
+    void feedbackSavedBeforeTheRebuildReadsTheRowIsCountedOnce() {
+        Transaction saved = transaction(null);
+        saved.setFeedback(Result.PROHIBITED);
+        writer.recordFeedback(saved);
+        readsRows(() -> transaction(Result.PROHIBITED));
+
+        writer.rebuild(new AtomicLong());
+
+        assertFalse(writer.isRebuilding());
+        assertEquals(1, table.get(CARD).getTransactions());
+        assertEquals(1, table.get(CARD).getProhibitedFeedback());
+    }
+
+    @Test
+    void feedbackSavedAfterTheRebuildReadTheRowIsCountedOnce() {
+        readsRows(() -> {
+            Transaction read = transaction(null);
+            Transaction saved = transaction(null);
+            saved.setFeedback(Result.PROHIBITED);
+            writer.recordFeedback(saved);
+            return read;
+        });
+
+        writer.rebuild(new AtomicLong());
+
+        assertEquals(1, table.get(CARD).getTransactions());
+        assertEquals(1, table.get(CARD).getProhibitedFeedback());
+    }
+
+    @Test
+    void feedbackOnACardAlreadyRebuiltIsAddedStraightAway() {
+        readsRows(() -> transaction(null));
+        writer.rebuild(new AtomicLong());
+
+        Transaction saved = transaction(null);
+        saved.setFeedback(Result.ALLOWED);
+        writer.recordFeedback(saved);
+
+        assertEquals(1, table.get(CARD).getAllowedFeedback());
+    }
+
+    private void readsRows(Supplier<Transaction> row) {
+        doAnswer(invocation -> {
+            invocation.<Consumer<Transaction>>getArgument(2).accept(row.get());
+            return null;
+        }).when(historyReader).forEachByNumber(anyLong(), anyString(), any());
+    }
+
+    private static Transaction transaction(Result feedback) {
+        Transaction transaction = new Transaction();
+        transaction.setId(1L);
+        transaction.setNumber(CARD);
+        transaction.setAmount(100L);
+        transaction.setIp("192.168.1.1");
+        transaction.setRegion("EAP");
+        transaction.setDate(LocalDateTime.of(2024, 3, 1, 12, 0));
+        transaction.setResult(Result.ALLOWED);
+        transaction.setFeedback(feedback);
+        return transaction;
+    }
+}
@@ -0,0 +1,52 @@
+package antifraud.persistence;
+
+import antifraud.AntiFraudApplication;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+
+class JpaTransactionStorageTest extends TransactionStorageContract {
+
+    @TempDir
+    Path directory;
+
+    private ConfigurableApplicationContext context;
+
+    @BeforeEach
+    void start() {
+        // Arguments rather than default properties, which application.properties would override
+        context = new SpringApplicationBuilder(AntiFraudApplication.class)
+                .run("--spring.datasource.url=jdbc:h2:file:" + directory.resolve("db"),
+                        "--spring.jpa.show-sql=false",
+                        "--server.port=0",
+                        "--antifraud.archive.dir=" + directory.resolve("archive"),
+                        "--antifraud.write-behind.journal-dir=" + directory.resolve("journal"));
+    }
+
+    @AfterEach
+    void stop() {
+        context.close();
+    }
+
+    @Override
+    TransactionRepository repository() {
+        return context.getBean(TransactionRepository.class);
+    }
+
+    @Override
+    TransactionHistoryReader historyReader() {
+        return context.getBean(TransactionHistoryReader.class);
+    }
+
+    @Override
+    void restart() {
+        stop();
+        start();
+    }
+}
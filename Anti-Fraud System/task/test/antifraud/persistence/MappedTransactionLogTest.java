@@ -0,0 +1,79 @@
+package antifraud.persistence;
+
+import antifraud.entity.Transaction;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedTransactionLogTest extends TransactionStorageContract {
+
+    // Small segments, so the tests cross segment boundaries
+    private static final int SEGMENT_RECORDS = 4;
+
+    @TempDir
+    Path directory;
+
+    private MappedTransactionLog log;
+
+    @BeforeEach
+    void openLog() throws IOException {
+        log = new MappedTransactionLog(directory.toString(), SEGMENT_RECORDS, false);
+        log.open();
+    }
+
+    @AfterEach
+    void closeLog() throws IOException {
+        log.close();
+    }
+
+    @Override
+    TransactionRepository repository() {
+        return log;
+    }
+
+    @Override
+    TransactionHistoryReader historyReader() {
+        return log;
+    }
+
+    @Override
+    void restart() throws IOException {
+        log.close();
+        openLog();
+    }
+
+    @Test
+    void discardsABatchThatWasCutOff() throws IOException {
+        Transaction saved = log.save(transaction(CARD, START, "EAP", "192.168.1.1"));
+        log.close();
+        // A crash after the first record of a two record batch
+        try (LogSegment segment = LogSegment.open(directory.resolve("segment-000000.log"), SEGMENT_RECORDS)) {
+            segment.write(1, transaction(CARD, START.plusMinutes(1), "ECA", "192.168.1.2"), true);
+        }
+        openLog();
+
+        assertEquals(1, log.count());
+        assertEquals(List.of(saved.getId()), ids(CARD, 0, null));
+        Transaction next = log.save(transaction(CARD, START.plusMinutes(2), "HIC", "192.168.1.3"));
+        assertEquals(saved.getId() + 1, next.getId());
+    }
+
+    @Test
+    void rejectsABatchItCannotStoreWithoutWritingAny() {
+        Transaction unpackable = transaction(CARD, START.plusMinutes(1), "ECA", "not an ip");
+
+        assertThrows(IllegalArgumentException.class, () -> log.saveAll(List.of(
+                transaction(CARD, START, "EAP", "192.168.1.1"), unpackable)));
+        assertEquals(0, log.count());
+    }
+}
@@ -0,0 +1,157 @@
+package antifraud.persistence;
+
+import antifraud.entity.Result;
+import antifraud.entity.Transaction;
+import antifraud.repository.RegionAndIp;
+import antifraud.repository.TransactionHistoryReader;
+import antifraud.repository.TransactionRepository;
+import antifraud.response.TransactionResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The behaviour every {@link TransactionRepository} and {@link TransactionHistoryReader} shares, run against
+ * the transaction table and the mapped log. Card numbers and IPs are valid for both.
+ */
+abstract class TransactionStorageContract {
+
+    static final String CARD = "4000008449433403";
+    static final String OTHER_CARD = "4000003305061034";
+    static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+    abstract TransactionRepository repository();
+
+    abstract TransactionHistoryReader historyReader();
+
+    // Closes the storage and opens it again on the same files
+    abstract void restart() throws Exception;
+
+    static Transaction transaction(String number, LocalDateTime date, String region, String ip) {
+        Transaction transaction = new Transaction();
+        transaction.setAmount(100L);
+        transaction.setNumber(number);
+        transaction.setDate(date);
+        transaction.setRegion(region);
+        transaction.setIp(ip);
+        transaction.setResult(Result.ALLOWED);
+        return transaction;
+    }
+
+    List<Long> ids(String number, long afterId, Integer limit) {
+        List<Long> ids = new ArrayList<>();
+        historyReader().forEach(number, afterId, limit, response -> ids.add(response.transactionId()));
+        return ids;
+    }
+
+    @Test
+    void saveAssignsIncreasingIds() {
+        Transaction first = repository().save(transaction(CARD, START, "EAP", "192.168.1.1"));
+        List<Transaction> batch = repository().saveAll(List.of(
+                transaction(CARD, START.plusMinutes(1), "ECA", "192.168.1.2"),
+                transaction(OTHER_CARD, START.plusMinutes(2), "HIC", "10.0.0.1")));
+
+        assertTrue(first.getId() < batch.get(0).getId());
+        assertTrue(batch.get(0).getId() < batch.get(1).getId());
+        assertEquals(3, repository().count());
+        assertEquals(batch.get(1).getId(), repository().findMaxId());
+        Transaction found = repository().findById(batch.get(0).getId()).orElseThrow();
+        assertEquals(CARD, found.getNumber());
+        assertEquals(START.plusMinutes(1), found.getDate());
+        assertEquals("ECA", found.getRegion());
+        assertEquals("192.168.1.2", found.getIp());
+        assertEquals(100L, found.getAmount());
+        assertEquals(Result.ALLOWED, found.getResult());
+        assertTrue(repository().findById(batch.get(1).getId() + 1).isEmpty());
+    }
+
+    @Test
+    void feedbackIsStoredInPlace() {
+        Transaction saved = repository().save(transaction(CARD, START, "EAP", "192.168.1.1"));
+        repository().save(transaction(CARD, START.plusMinutes(1), "EAP", "192.168.1.1"));
+        assertEquals(0, repository().countByFeedbackIsNotNull());
+
+        Transaction withFeedback = repository().findById(saved.getId()).orElseThrow();
+        withFeedback.setFeedback(Result.PROHIBITED);
+        repository().save(withFeedback);
+
+        assertEquals(2, repository().count());
+        assertEquals(1, repository().countByFeedbackIsNotNull());
+        assertEquals(Result.PROHIBITED, repository().findById(saved.getId()).orElseThrow().getFeedback());
+        List<TransactionResponse> history = new ArrayList<>();
+        historyReader().forEach(CARD, 0, null, history::add);
+        assertEquals(List.of("PROHIBITED", ""), history.stream().map(TransactionResponse::feedback).toList());
+    }
+
+    @Test
+    void regionsAndIpsCoverTheHalfOpenWindow() {
+        LocalDateTime from = START;
+        LocalDateTime to = START.plusHours(1);
+        repository().saveAll(List.of(
+                transaction(CARD, from, "EAP", "10.0.0.1"),
+                transaction(CARD, from.plusNanos(1000), "ECA", "10.0.0.2"),
+                transaction(CARD, to, "HIC", "10.0.0.3"),
+                transaction(CARD, to.plusNanos(1000), "LAC", "10.0.0.4"),
+                transaction(OTHER_CARD, from.plusMinutes(30), "MENA", "10.0.0.5")));
+
+        List<RegionAndIp> rows = repository().findRegionsAndIps(CARD, from, to);
+
+        assertEquals(Set.of("ECA", "HIC"), rows.stream().map(RegionAndIp::getRegion).collect(Collectors.toSet()));
+        assertEquals(Set.of("10.0.0.2", "10.0.0.3"), rows.stream().map(RegionAndIp::getIp).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void forEachPagesByKey() {
+        List<Long> all = new ArrayList<>();
+        List<Long> card = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            String number = i % 2 == 0 ? CARD : OTHER_CARD;
+            Transaction saved = repository().save(transaction(number, START.plusMinutes(i), "EAP", "10.0.0." + (i + 1)));
+            all.add(saved.getId());
+            if (number.equals(CARD)) {
+                card.add(saved.getId());
+            }
+        }
+
+        assertEquals(all, ids(null, 0, null));
+        assertEquals(all.subList(0, 4), ids(null, 0, 4));
+        assertEquals(all.subList(4, 6), ids(null, all.get(3), 4));
+        assertEquals(List.of(), ids(null, all.get(5), 4));
+
+        assertEquals(card, ids(CARD, 0, null));
+        assertEquals(card.subList(0, 2), ids(CARD, 0, 2));
+        assertEquals(card.subList(2, 3), ids(CARD, card.get(1), 2));
+        assertEquals(card.subList(1, 3), ids(CARD, all.get(1), null));
+        assertTrue(historyReader().existsByNumber(CARD));
+        assertFalse(historyReader().existsByNumber("4000002996108470"));
+    }
+
+    @Test
+    void reopensWithEverythingSaved() throws Exception {
+        Transaction first = repository().save(transaction(CARD, START, "EAP", "192.168.1.1"));
+        Transaction second = repository().save(transaction(OTHER_CARD, START.plusMinutes(1), "ECA", "192.168.1.2"));
+        second.setFeedback(Result.MANUAL_PROCESSING);
+        repository().save(second);
+
+        restart();
+
+        assertEquals(2, repository().count());
+        assertEquals(1, repository().countByFeedbackIsNotNull());
+        assertEquals(second.getId(), repository().findMaxId());
+        assertEquals(START.plusMinutes(1), repository().findTopByOrderByDateDesc().orElseThrow().getDate());
+        assertEquals(List.of(first.getId(), second.getId()), ids(null, 0, null));
+        assertEquals(1, repository().findRegionsAndIps(CARD, START.minusHours(1), START).size());
+
+        Transaction third = repository().save(transaction(CARD, START.plusMinutes(2), "EAP", "192.168.1.1"));
+        assertTrue(third.getId() > second.getId());
+        assertEquals(List.of(first.getId(), third.getId()), ids(CARD, 0, null));
+    }
+}